@@ -22,14 +22,10 @@
 
 package org.vinesrobotics.bot.hardware;
 
-import com.qualcomm.robotcore.hardware.DcMotorSimple;
 import com.qualcomm.robotcore.hardware.HardwareDevice;
 import com.qualcomm.robotcore.hardware.HardwareMap;
-import com.qualcomm.robotcore.hardware.Servo;
 
 import org.vinesrobotics.bot.utils.Logging;
-import org.vinesrobotics.bot.utils.Reflection;
-import org.vinesrobotics.bot.utils.Utils;
 
 import java.io.ByteArrayOutputStream;
 import java.io.OutputStream;
@@ -45,11 +41,25 @@ import java.util.Map;
  * Allows for names to be keyed instead of hardcoded, and have easy access to all with given keys.
  */
 public class Hardware {
+    // stand-ins for missing devices, shared by everything; most specific first
+    private static final HardwareDevice[] NULL_DEVICES = {
+            new GenericMotorDevice(), new GenericServoDevice(), new GenericHardwareDevice()
+    };
+    // stand-in element for untyped queries that find nothing
+    private static final HardwareElement NULL_ELEMENT = new HardwareElement(NULL_DEVICES[0]);
+
     // device list
     private ArrayList<HardwareDevice> devices = new ArrayList<>();
     // key matches
     private ArrayList<ArrayList<String>> keyMatch = new ArrayList<>();
 
+    // the bit of each registered key and each device's key mask, indexed by device ID
+    private KeyIndex index = null;
+    // the element for each device, indexed by device ID
+    private ArrayList<HardwareElement> elements = new ArrayList<>();
+    // memoised results of getDevicesWithAllKeys, by key mask
+    private Map<Long,List<HardwareElement>> queryCache = new HashMap<>();
+
     // are we initialized?
     boolean inited = false;
     // mappings of keys to element lists
@@ -69,7 +79,7 @@ public class Hardware {
      * Adds key to be indexed in hardware names.
      *
      * @param key Key to add to the indexed list
-     * @throws InvalidKeyException if the key exists
+     * @throws InvalidKeyException if the key exists or there are already 64 keys
      * @throws UnsupportedOperationException if executed after initHardware
      * @see #initHardware(HardwareMap)
      */
@@ -83,10 +93,13 @@ public class Hardware {
         if (!inited)
 
             // Double sanity check: Don't double add!
-            if (!keys.contains(key))
-                keys.add(key);
-            else
+            if (keys.contains(key))
                 throw new InvalidKeyException("Don't double add keys!");
+            // Each key needs a bit in a long mask
+            else if (keys.size() >= KeyIndex.MAX_KEYS)
+                throw new InvalidKeyException("No more than " + KeyIndex.MAX_KEYS + " keys can be registered");
+            else
+                keys.add(key);
         else
             // Gotta do something when someone does what you don't do.
             throw new UnsupportedOperationException("Keys cannot be added after hardware init");
@@ -126,9 +139,10 @@ public class Hardware {
         // SANITY CHECK
         if (inited) throw new UnsupportedOperationException("Hardware already initialized!");
 
-        // Init keyMaps with all names in keys
-        for (String s : keys) {
-            keyMaps.put(s,new ArrayList<HardwareElement>());
+        // Init keyMaps with all names in keys, and give each key a bit
+        index = new KeyIndex(keys);
+        for (String key : keys) {
+            keyMaps.put(key,new ArrayList<HardwareElement>());
         }
 
         // Iterate over all hardware devices
@@ -137,30 +151,32 @@ public class Hardware {
             try {
                 HardwareDevice dkv = (HardwareDevice) odkv;
 
-                // Add device to local ID list
+                // Get device name and keys first, so the ID lists can't get out of step
+                String name = hwm.getNamesOf(dkv).iterator().next();
+                String[] nsplit = name.split(splitRegex);
+
+                // Add device to local ID list, and its registered keys to the index
                 int id = devices.size();
                 devices.add(dkv);
+                long mask = index.maskOf(nsplit);
+                index.add(mask);
 
-                // Add corresponding keyMatch element
+                // Add corresponding keyMatch and element entries
                 keyMatch.add(new ArrayList<String>());
+                HardwareElement element = new HardwareElement(this, id);
+                elements.add(element);
 
-                hwm.getNamesOf(dkv);
-                Logging.hardwareAccess.value.addData("",hwm.getNamesOf(dkv));
+                Logging.hardwareAccess.value.addData("",name);
 
-                // Get device keys
-                String name = hwm.getNamesOf(dkv).iterator().next();
                 //Logging.log(name);
-                String[] nsplit = name.split(splitRegex);
 
                 // Put keys into keyMatch
                 keyMatch.get(id).addAll(Arrays.asList(nsplit));
 
-                // Put index into appropriate keyMaps element
-                for (Map.Entry<String, ArrayList<HardwareElement>> s : keyMaps.entrySet()) {
-                    // If key in the index list, then add it to the appropriate list.
-                    if (keyMatch.get(id).contains(s.getKey())) {
-                        s.getValue().add(new HardwareElement(this, id));
-                    }
+                // Put index into appropriate keyMaps element, once for each registered key
+                for (int bit = 0; bit < index.keyCount(); bit++) {
+                    if ((mask & (1L << bit)) != 0)
+                        keyMaps.get(index.key(bit)).add(element);
                 }
 
                 /*/-----------------------------------------------------------------------\*\
@@ -209,7 +225,10 @@ public class Hardware {
         // SANITY CHECK
         if (!inited) throw new UnsupportedOperationException("Hardware not initialized!");
 
-        // It's x simple check, so doesn't really need explaining
+        // Registered keys are a bit check; anything else has to search the name
+        int bit = index.bit(key);
+        if (bit >= 0 && id.id() < index.size())
+            return index.has(id.id(), bit);
         return keyMatch.get(id.id()).contains(key);
 
     }
@@ -221,103 +240,128 @@ public class Hardware {
      */
     public <T extends HardwareDevice> List<HardwareElement> getDevicesWithAllKeys(String... keys){
 
-        // SANITY CHECK
-        if (!inited) throw new UnsupportedOperationException("Hardware not initialized!");
-        if (keys.length < 1) throw new IllegalArgumentException("Needs at least one key to check for");
+        List<HardwareElement> out = new ArrayList<>(query(keys));
 
-        // Convert varargs to List
-        List<String> kys = Arrays.asList(keys);
+        // Ensure output is always populated with something
+        if (out.size() == 0) out.add(NULL_ELEMENT);
 
-        // Get similarity between loaded keys and args
-        // (Get filtered key list)
-        ArrayList<String> prim = Utils.getListSimilarity(new ArrayList<>(kys),this.keys);
-        if (prim.size() < 1) throw new IllegalArgumentException("Needs at least one listed key to check for");
+        return out;
 
-        List<HardwareElement> outa = new ArrayList<>();
-        List<HardwareElement> out = new ArrayList<>();
+    }
 
-        // Initialize out with full list of compatible keys
-        outa.addAll(keyMaps.get(prim.get(0)));
-        out.addAll(keyMaps.get(prim.get(0)));
+    /**
+     * Gets the first found device with all input keys
+     * @see Hardware#getDevicesWithAllKeys(String...)
+     *
+     * @param keys The keys to
+     * @param <T> The type to cast to. It may fail, this method errors in that case.
+     * @return the device
+     */
+    public <T extends HardwareDevice> T getDeviceWithKeys(String... keys) {
+        return (T) getDevicesWithAllKeys(keys).get(0).get();
+    }
 
-        // Remove first
-        prim.remove(0);
+    /**
+     * Gets all devices of x type that have all specified keys.
+     * <pre>
+     *    List&lt;DcMotor&gt; lefts = robot.devices(DcMotor.class, "left", "drive");
+     * </pre>
+     *
+     * @param type The type of device wanted; devices with the keys but of another type are skipped
+     * @param keys Keys to use as x filter
+     * @param <T> The type of device
+     * @return The matching devices, or the shared null device for the type if there are none and
+     *          the type has one
+     * @see #nullDevice(Class)
+     */
+    public <T extends HardwareDevice> List<T> devices(Class<T> type, String... keys) {
+        List<HardwareElement> found = query(keys);
 
-        // Filter out elements that don't have all keys
-        for (HardwareElement k : outa) {
-            for (String s : prim) {
-                if (!hasKey(k,s)) {
-                    out.remove(k);
-                    break;
-                }
-            }
+        List<T> out = new ArrayList<>(found.size());
+        for (HardwareElement he : found) {
+            HardwareDevice dev = he.get();
+            if (type.isInstance(dev)) out.add(type.cast(dev));
         }
 
-        // Ensure output is always populated with something
-        if(out.size() == 0) {
-            try {
-                Class<?> pty = Reflection.getClass(
-                        getClass().getDeclaredMethod("getDeviceWithKeys", String[].class)
-                                .getTypeParameters()[0].getBounds()[0]
-                );
+        // Ensure output is always populated with something, if there is something
+        if (out.size() == 0) {
+            T nul = nullDevice(type);
+            if (nul != null) out.add(nul);
+        }
 
-                if (pty.isAssignableFrom(DcMotorSimple.class)) {
-                    return new ArrayList<>(Arrays.asList(new HardwareElement(new GenericMotorDevice())));
-                }
+        return out;
+    }
 
-                if (pty.isAssignableFrom(Servo.class)) {
-                    return new ArrayList<>(Arrays.asList(new HardwareElement(new GenericServoDevice())));
-                }
+    /**
+     * Gets the first device of x type that has all specified keys.
+     *
+     * @param type The type of device wanted
+     * @param keys Keys to use as x filter
+     * @param <T> The type of device
+     * @return The device, the shared null device for the type, or null if the type has none
+     * @see #devices(Class, String...)
+     */
+    public <T extends HardwareDevice> T device(Class<T> type, String... keys) {
+        List<T> found = devices(type, keys);
+        return found.size() == 0 ? null : found.get(0);
+    }
 
-            } catch (NoSuchMethodException e) {
-                e.printStackTrace();
-            } catch (ClassNotFoundException e) {
-                e.printStackTrace();
-            }
-            return new ArrayList<>(Arrays.asList(new HardwareElement(new GenericHardwareDevice())));
+    /**
+     * Gets the shared non-functional device that stands in for x missing device of the given type.
+     *
+     * @param type The type of device
+     * @param <T> The type of device
+     * @return A {@link GenericMotorDevice}, {@link GenericServoDevice} or {@link GenericHardwareDevice}
+     *          shared by all callers, or null if none of those is x T
+     */
+    public static <T extends HardwareDevice> T nullDevice(Class<T> type) {
+        for (HardwareDevice nul : NULL_DEVICES) {
+            if (type.isInstance(nul)) return type.cast(nul);
         }
+        return null;
+    }
 
-        return out;
-
+    /**
+     * Checks whether x device is one of the shared stand-ins from {@link #nullDevice(Class)}.
+     * Anything set on one of those would affect every missing device, so callers that configure
+     * devices one at x time should skip it.
+     *
+     * @param device The device
+     * @return true if the device is x shared null device
+     */
+    public static boolean isNullDevice(HardwareDevice device) {
+        for (HardwareDevice nul : NULL_DEVICES) {
+            if (device == nul) return true;
+        }
+        return false;
     }
 
     /**
-     * Gets the first found device with all input keys
-     * @see Hardware#getDevicesWithAllKeys(String...)
+     * Gets the devices that have all specified keys. The list is shared, so don't change it.
      *
-     * @param keys The keys to
-     * @param <T> The type to cast to. It may fail, this method errors in that case.
-     * @return the device
+     * @param keys Keys to use as x filter
+     * @return the memoised list of matching devices
      */
-    public <T extends HardwareDevice> T getDeviceWithKeys(String... keys) {
-        List<HardwareElement> hes = getDevicesWithAllKeys(keys);
-
-        if (hes.get(0).get() instanceof GenericHardwareDevice) {
-            do {
-                try {
-                    Class<?> pty = Reflection.getClass(
-                            getClass().getDeclaredMethod("getDeviceWithKeys", String[].class)
-                                    .getTypeParameters()[0].getBounds()[0]
-                    );
-
-                    if (pty.isAssignableFrom(DcMotorSimple.class)) {
-                        return (T) new GenericMotorDevice();
-                    }
-
-                    if (pty.isAssignableFrom(Servo.class)) {
-                        return (T) new GenericServoDevice();
-                    }
-
-                    break;
-                } catch (NoSuchMethodException e) {
-                    e.printStackTrace();
-                } catch (ClassNotFoundException e) {
-                    e.printStackTrace();
-                }
-                return null;
-            } while (false);
+    private List<HardwareElement> query(String... keys) {
+
+        // SANITY CHECK
+        if (!inited) throw new UnsupportedOperationException("Hardware not initialized!");
+        if (keys.length < 1) throw new IllegalArgumentException("Needs at least one key to check for");
+
+        // Build the mask of the registered keys asked for; unregistered keys are ignored
+        long query = index.maskOf(keys);
+        if (query == 0) throw new IllegalArgumentException("Needs at least one listed key to check for");
+
+        // Filter devices by mask, remembering the result for this key set
+        List<HardwareElement> out = queryCache.get(query);
+        if (out == null) {
+            int[] ids = index.match(query);
+            out = new ArrayList<>(ids.length);
+            for (int id : ids) out.add(elements.get(id));
+            queryCache.put(query, out);
         }
 
-        return (T) hes.get(0).get();
+        return out;
+
     }
 }
@@ -27,6 +27,9 @@ import com.qualcomm.robotcore.hardware.Gamepad;
 
 import org.vinesrobotics.bot.hardware.controllers.enums.CalibrationMode;
 
+import java.io.File;
+import java.io.IOException;
+
 /**
  * Created by Vines HS Robotics on 10/14/2016.
  */
@@ -46,6 +49,27 @@ public class Controllers {
         return new Controllers(omode.gamepad1, omode.gamepad2);
     }
 
+    /**
+     * Generates a Controllers object that plays back recorded logs instead of reading gamepads.
+     *
+     * @param one the log for gamepad 1
+     * @param two the log for gamepad 2
+     * @return the generated Controllers object
+     * @throws IOException if either log cannot be opened
+     * @see #startRecording(File, File)
+     */
+    public static Controllers replay(File one, File two) throws IOException {
+        ReplayController ra = new ReplayController(one, "1");
+        ReplayController rb;
+        try {
+            rb = new ReplayController(two, "2");
+        } catch (IOException | RuntimeException e) {
+            ra.close();
+            throw e;
+        }
+        return new Controllers(ra, rb);
+    }
+
     // The {@link Controller} referencing gamepad 1
     private Controller gpa = null;
     // The {@link Controller} referencing gamepad 2
@@ -59,9 +83,82 @@ public class Controllers {
      */
     private Controllers(Gamepad one, Gamepad two) {
         if (one != null)
-            gpa = new Controller(one,"1");
+            gpa = new GamepadController(one,"1");
         if (two != null)
-            gpb = new Controller(two,"2");
+            gpb = new GamepadController(two,"2");
+    }
+
+    /**
+     * Initializes the Controllers object with two existing {@link Controller}s.
+     *
+     * @param one controller 1
+     * @param two controller 2
+     */
+    private Controllers(Controller one, Controller two) {
+        gpa = one;
+        gpb = two;
+    }
+
+    // The recorders for each controller, while recording
+    private InputRecorder reca = null;
+    private InputRecorder recb = null;
+
+    /**
+     * Starts recording every state read from both controllers.
+     *
+     * @param one the file to record gamepad 1 to
+     * @param two the file to record gamepad 2 to
+     * @throws IOException if either file cannot be opened
+     * @see #replay(File, File)
+     */
+    public void startRecording(File one, File two) throws IOException {
+        stopRecording();
+        InputRecorder ra = new InputRecorder(one);
+        InputRecorder rb;
+        try {
+            rb = new InputRecorder(two);
+        } catch (IOException | RuntimeException e) {
+            ra.close();
+            throw e;
+        }
+        reca = ra;
+        recb = rb;
+        if (gpa != null) gpa.setRecorder(reca);
+        if (gpb != null) gpb.setRecorder(recb);
+    }
+
+    /**
+     * Stops recording and closes the logs, if recording.
+     *
+     * @throws IOException if a log could not be written
+     */
+    public void stopRecording() throws IOException {
+        if (gpa != null) gpa.setRecorder(null);
+        if (gpb != null) gpb.setRecorder(null);
+        try {
+            if (reca != null) reca.close();
+        } finally {
+            if (recb != null) recb.close();
+            reca = null;
+            recb = null;
+        }
+    }
+
+    /**
+     * Stops recording, and closes the logs of any controllers playing one back.
+     *
+     * @throws IOException if x log could not be written or closed
+     */
+    public void close() throws IOException {
+        try {
+            stopRecording();
+        } finally {
+            try {
+                if (gpa instanceof ReplayController) ((ReplayController) gpa).close();
+            } finally {
+                if (gpb instanceof ReplayController) ((ReplayController) gpb).close();
+            }
+        }
     }
 
     /**
@@ -1,5 +1,5 @@
 /*
- * Copyright (c) 2016 Vines High School Robotics Team
+ * Copyright (c) 2018 Vines High School Robotics Team
  *
  *                            Permission is hereby granted, free of charge, to any person obtaining a copy
  *                            of this software and associated documentation files (the "Software"), to deal
@@ -27,18 +27,16 @@ import com.qualcomm.robotcore.hardware.Gamepad;
 import org.vinesrobotics.bot.hardware.controllers.enums.Button;
 import org.vinesrobotics.bot.hardware.controllers.enums.CalibrationMode;
 import org.vinesrobotics.bot.hardware.controllers.enums.Joystick;
+import org.vinesrobotics.bot.utils.Axis;
 import org.vinesrobotics.bot.utils.Logging;
-import org.vinesrobotics.bot.utils.Reflection;
-import org.vinesrobotics.bot.utils.Vec2D;
 
 /**
- * A representation (using a more object-oriented API) of the content of the {@link Gamepad} class
+ * A {@link Controller} that reads the content of x {@link Gamepad}. Each button reads its own
+ * gamepad field directly, so polling never goes through reflection.
  */
-public class Controller {
+public class GamepadController extends Controller {
     // the gamepad referenced
     private Gamepad gamepad;
-    // the internal name of the controller
-    private String name = "";
 
     // Calibration mode. This really should be nothing other than {@link CalibrationMode::SIMPLE}.
     private CalibrationMode ctype = CalibrationMode.SIMPLE;
@@ -49,35 +47,19 @@ public class Controller {
     private float rzx = 0.0f;
     private float rzy = 0.0f;
 
-    /**
-     * A null constructor. Used with the {@link NullControllerState}
-     */
-    protected Controller () {
-        this(null, null);
-    }
-
     /**
      * A constructor to create an object that references the gamepad with the specified name.
      *
      * @param gp the {@link Gamepad} object to pull data from
      * @param name the name of the controller
      */
-    protected Controller (Gamepad gp, String name) {
+    protected GamepadController (Gamepad gp, String name) {
+        super(name);
         gamepad = gp;
-        this.name = name;
         if (gp != null)
             gamepad.setJoystickDeadzone(0.0f);
     }
 
-    /**
-     * Calibrates controller.
-     * Should never be used.
-     */
-    @Deprecated
-    public void calibrate() {
-        calibrate(CalibrationMode.SIMPLE);
-    }
-
     /**
      * Calibrates controller using one of 2 modes
      * Should never be used.
@@ -85,12 +67,13 @@ public class Controller {
      * @param type Mode
      */
     @Deprecated
+    @Override
     public void calibrate(CalibrationMode type) {
 
         // SIMPLE calibration mode
         if (type == CalibrationMode.SIMPLE) {
 
-            Logging.log("Please leave the joysticks on gamepad " + name + " in the neutral position.");
+            Logging.log("Please leave the joysticks on gamepad " + getName() + " in the neutral position.");
 
             try {
                 Thread.sleep(2500);
@@ -109,7 +92,7 @@ public class Controller {
         // COMPLEX calibration mode
         if (type == CalibrationMode.COMPLEX) {
 
-            Logging.log("Please leave the joysticks on gamepad " + name + " in the neutral position.");
+            Logging.log("Please leave the joysticks on gamepad " + getName() + " in the neutral position.");
 
             try {
                 Thread.sleep(5000L);
@@ -137,97 +120,49 @@ public class Controller {
 
     }
 
-    /**
-     * Gets value of specified joystick
-     *
-     * @param stick Joystick to get the value of
-     * @return value of the joystick in (X,Y)
-     */
-    public Vec2D<Float> getJoystick(Joystick stick) {
+    @Override
+    protected float getJoystickAxis(Joystick stick, Axis ax) {
+        boolean right = stick == Joystick.RIGHT;
+        float v;
+        float zero;
 
-        float x = 0.0f;
-        float y = 0.0f;
-
-        // Get the data for the right joystick
-        if (stick == Joystick.RIGHT) {
-            x = gamepad.right_stick_x;
-            y = gamepad.right_stick_y;
-        }
-
-        // Get the data for the left joystick
-        if (stick == Joystick.LEFT) {
-            x = gamepad.left_stick_x;
-            y = gamepad.left_stick_y;
+        // Get the data for the requested joystick
+        if (ax == Axis.X) {
+            v = right ? gamepad.right_stick_x : gamepad.left_stick_x;
+            zero = right ? rzx : lzx;
+        } else {
+            v = right ? gamepad.right_stick_y : gamepad.left_stick_y;
+            zero = right ? rzy : lzy;
         }
 
         // Apply complex calibration
-        if (ctype == CalibrationMode.COMPLEX) {
-
-            if (stick == Joystick.RIGHT) {
-                x = (x==rzx)?0:x;
-                y = (y==rzy)?0:y;
-            }
-
-            if (stick == Joystick.LEFT) {
-                x = (x==lzx)?0:x;
-                y = (y==lzy)?0:y;
-            }
-
-        }
-
-        // Return the vector
-        return new Vec2D<>(x,y);
+        if (ctype == CalibrationMode.COMPLEX && v == zero) v = 0;
 
+        return v;
     }
 
-    /**
-     * Gets x button value; if x boolean, true is 1, false is 0; if float, then the float.
-     *
-     * @param b Button to check
-     * @return Same object as passed in, but with value property modified
-     */
-    public ButtonState getButton(Button b) {
-
-        ButtonState ret = new ButtonState();
-        ret.button = b;
-
-        // Check if button is analog, look at ButtonType for what is and isn't
-        if (!b.type().isAnalog()) {
-            ret.value = Reflection.<Boolean>getFieldValue(b.f.value,gamepad) ? 1f : 0f ;
-        } else {
-            ret.value = Reflection.<Float>getFieldValue(b.f.value, gamepad);
+    @Override
+    protected float getButtonValue(Button b) {
+        Gamepad gp = gamepad;
+        switch (b) {
+            case A: return gp.a ? 1f : 0f;
+            case B: return gp.b ? 1f : 0f;
+            case X: return gp.x ? 1f : 0f;
+            case Y: return gp.y ? 1f : 0f;
+            case RS: return gp.right_stick_button ? 1f : 0f;
+            case LS: return gp.left_stick_button ? 1f : 0f;
+            case RB: return gp.right_bumper ? 1f : 0f;
+            case LB: return gp.left_bumper ? 1f : 0f;
+            case RT: return gp.right_trigger;
+            case LT: return gp.left_trigger;
+            case START: return gp.start ? 1f : 0f;
+            case BACK: return gp.back ? 1f : 0f;
+            case LEFT: return gp.dpad_left ? 1f : 0f;
+            case RIGHT: return gp.dpad_right ? 1f : 0f;
+            case UP: return gp.dpad_up ? 1f : 0f;
+            case DOWN: return gp.dpad_down ? 1f : 0f;
+            default: return 0f;
         }
-
-        return ret;
-    }
-
-    // Reference to previous controller state
-    private ControllerState controlState;
-
-    /**
-     * Get the current state of the controller.
-     *
-     * @return a {@link ControllerState}. May or may not be the same object as the previous time it
-     * was called.
-     */
-    public ControllerState getControllerState() {
-        /*
-        // If this is the first call, prev is a {@link NullControllerState}
-        // else clone the previous
-        ControllerState prev = (controlState == null)? new NullControllerState() : controlState.clone();
-
-        // update or create a controller state to return
-        if (controlState == null) controlState = new ControllerState(this);
-        else controlState.update();
-
-        // assign the prev field to the calculated value
-        controlState.prev = prev;
-        */
-        ControllerState prev = (controlState == null)? new NullControllerState() : controlState;
-        controlState = new ControllerState(this);
-        controlState.prev = prev;
-
-        return controlState;
     }
 
 }
@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) 2018 Vines High School Robotics Team
+ *
+ *                            Permission is hereby granted, free of charge, to any person obtaining a copy
+ *                            of this software and associated documentation files (the "Software"), to deal
+ *                            in the Software without restriction, including without limitation the rights
+ *                            to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *                            copies of the Software, and to permit persons to whom the Software is
+ *                            furnished to do so, subject to the following conditions:
+ *
+ *                            The above copyright notice and this permission notice shall be included in all
+ *                            copies or substantial portions of the Software.
+ *
+ *                            THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *                            IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *                            FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *                            AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *                            LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *                            OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *                            SOFTWARE.
+ */
+
+package org.vinesrobotics.bot.hardware.groups;
+
+import com.qualcomm.hardware.lynx.LynxController;
+import com.qualcomm.hardware.lynx.LynxModuleIntf;
+import com.qualcomm.hardware.lynx.LynxNackException;
+import com.qualcomm.hardware.lynx.commands.core.LynxGetBulkInputDataCommand;
+import com.qualcomm.hardware.lynx.commands.core.LynxGetBulkInputDataResponse;
+import com.qualcomm.robotcore.hardware.DcMotor;
+import com.qualcomm.robotcore.hardware.DcMotorController;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reads all encoders and motor statuses on x Lynx module with one bulk input command.
+ * <p>
+ * Each module's response is kept for the rest of the cycle it was read in, so every group with
+ * motors on that module shares one bus round trip per {@link MotorDeviceGroup#beginCycle()}. A
+ * write that can change what the module reports calls {@link #changed()}, and the next read goes
+ * to the bus again.
+ */
+class BulkRead {
+
+    // LynxController.getModule, which is protected; null if it can't be had
+    private static final Method getModule = findGetModule();
+
+    // the modules read this cycle, with their responses and the cycle and generation each was
+    // read in; grown as modules are seen, and guarded by the class
+    private static LynxModuleIntf[] modules = new LynxModuleIntf[2];
+    private static LynxGetBulkInputDataResponse[] responses = new LynxGetBulkInputDataResponse[2];
+    private static long[] cycles = new long[2];
+    private static long[] generations = new long[2];
+    // bumped by every write that could change x module's inputs
+    private static final AtomicLong generation = new AtomicLong();
+
+    /**
+     * Looks up LynxController.getModule once, so motors can be matched to their modules.
+     *
+     * @return the accessible method, or null
+     */
+    private static Method findGetModule() {
+        try {
+            Method m = LynxController.class.getDeclaredMethod("getModule");
+            m.setAccessible(true);
+            return m;
+        } catch (Exception | LinkageError e) {
+            // no Lynx support in this SDK; everything gets read one by one
+            return null;
+        }
+    }
+
+    /**
+     * Gets the Lynx module x motor is on.
+     *
+     * @param mot the motor
+     * @return the module, or null if the motor isn't on x Lynx module
+     */
+    static LynxModuleIntf moduleOf(DcMotor mot) {
+        DcMotorController ctl = mot.getController();
+        if (getModule == null || !(ctl instanceof LynxController)) return null;
+        try {
+            return (LynxModuleIntf) getModule.invoke(ctl);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * Gets the response already read from x module in this cycle, if nothing has changed since.
+     *
+     * @param module the module
+     * @param cycle the current cycle; 0 if cycles aren't in use, which never has x response
+     * @return the response, or null if the module has to be read
+     */
+    static synchronized LynxGetBulkInputDataResponse cached(LynxModuleIntf module, long cycle) {
+        if (cycle == 0) return null;
+        long gen = generation.get();
+        for (int i = 0; i < modules.length && modules[i] != null; i++) {
+            if (modules[i] == module)
+                return cycles[i] == cycle && generations[i] == gen ? responses[i] : null;
+        }
+        return null;
+    }
+
+    /**
+     * Reads the bulk input data from x module and keeps it for the rest of the cycle.
+     *
+     * @param module the module to read
+     * @param cycle the current cycle; 0 if cycles aren't in use, so nothing is kept
+     * @return the data, or null if the read failed
+     */
+    static LynxGetBulkInputDataResponse read(LynxModuleIntf module, long cycle) {
+        long gen = generation.get();
+        LynxGetBulkInputDataResponse data = read(module);
+        if (data != null && cycle != 0) store(module, cycle, gen, data);
+        return data;
+    }
+
+    /**
+     * Keeps x module's response for the cycle.
+     */
+    private static synchronized void store(LynxModuleIntf module, long cycle, long gen,
+                                           LynxGetBulkInputDataResponse data) {
+        int i = 0;
+        while (i < modules.length && modules[i] != null && modules[i] != module) i++;
+        if (i == modules.length) {
+            int size = modules.length * 2;
+            modules = Arrays.copyOf(modules, size);
+            responses = Arrays.copyOf(responses, size);
+            cycles = Arrays.copyOf(cycles, size);
+            generations = Arrays.copyOf(generations, size);
+        }
+        modules[i] = module;
+        responses[i] = data;
+        cycles[i] = cycle;
+        generations[i] = gen;
+    }
+
+    /**
+     * Marks every kept response as stale, after x write that could change x module's inputs.
+     */
+    static void changed() {
+        generation.incrementAndGet();
+    }
+
+    /**
+     * Reads the bulk input data from x module.
+     *
+     * @param module the module to read
+     * @return the data, or null if the read failed
+     */
+    private static LynxGetBulkInputDataResponse read(LynxModuleIntf module) {
+        try {
+            return new LynxGetBulkInputDataCommand(module).sendReceive();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (LynxNackException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+}
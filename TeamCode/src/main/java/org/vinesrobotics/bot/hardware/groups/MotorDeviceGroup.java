@@ -22,6 +22,8 @@
 
 package org.vinesrobotics.bot.hardware.groups;
 
+import com.qualcomm.hardware.lynx.LynxModuleIntf;
+import com.qualcomm.hardware.lynx.commands.core.LynxGetBulkInputDataResponse;
 import com.qualcomm.robotcore.eventloop.opmode.OpMode;
 import com.qualcomm.robotcore.hardware.DcMotor;
 import com.qualcomm.robotcore.hardware.DcMotorController;
@@ -29,14 +31,108 @@ import com.qualcomm.robotcore.hardware.configuration.MotorConfigurationType;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * A {@link DeviceGroup} used for grouping {@link DcMotor}s.
+ * <p>
+ * The group remembers the last power, target position, run mode and zero power behavior written
+ * to each motor, and doesn't write them again if they haven't changed, since every write is x
+ * bus transaction. Anything that changes x motor without going through the group should be
+ * followed by {@link #invalidateShadow()}.
+ * <p>
+ * Calling {@link #snapshot()} reads every motor's encoder position and busy flag in one step,
+ * using one Lynx bulk input read per module where it can. Within x cycle, groups with motors on
+ * the same module share that read, so the module is read once however many groups use it. The snapshot only lasts for the cycle
+ * it was taken in: the OpMode calls {@link #beginCycle()} at the start of every loop, and until
+ * the next call, or until something is written that could change them, position and busy reads
+ * are served from the snapshot, as are the aggregate position views like
+ * {@link #getMeanPosition()}. If the OpMode never begins x cycle, nothing is cached: reads go to
+ * the motors and every aggregate view takes x fresh snapshot.
+ * <p>
+ * With x {@link WriteBehind} set, power and target position are posted to it and written on its
+ * thread instead; everything else is still written directly. Power and target writes hold only
+ * the group's write lock, never the group itself, so x loop-side call such as {@link #snapshot()}
+ * or {@link #setMode(RunMode)} never waits for x bus write on the write thread. Loop-side calls
+ * that make the last written power or target stale say so by bumping an epoch instead of
+ * touching the write side's shadows.
  */
-public class MotorDeviceGroup extends DeviceGroup<DcMotor> implements DcMotor {
+public class MotorDeviceGroup extends DeviceGroup<DcMotor> implements DcMotor, WriteBehind.Flushable {
+
+    /**
+     * The last values written to and read from one motor.
+     */
+    private static class Shadow {
+        // the motor
+        final DcMotor motor;
+
+        // loop side, guarded by the group
+        // encoder position at the last snapshot
+        int position = 0;
+        // busy flag at the last snapshot
+        boolean busy = false;
+        // whether module and port have been looked up
+        boolean bound = false;
+        // the Lynx module the motor is on; null if it isn't on one
+        LynxModuleIntf module = null;
+        // the motor's port on its controller
+        int port = -1;
+
+        // last run mode; null if unknown
+        RunMode mode = null;
+        // last zero power behavior; null if unknown
+        ZeroPowerBehavior zeroPowerBehavior = null;
+
+        // write side, guarded by writeLock
+        // last power, and the power epoch it was written in; NaN if never written
+        double power = Double.NaN;
+        int powerEpoch = -1;
+        // last target position, and the target epoch it was written in
+        int target = 0;
+        int targetEpoch = -1;
+
+        Shadow(DcMotor motor) {
+            this.motor = motor;
+        }
+    }
 
     // list of devices
     private List<DcMotor> devs = new ArrayList<>();
+    // the last written values for each device, in the same order as devs; copied on change,
+    // so the write side can walk it without the group's lock
+    private final List<Shadow> shadows = new CopyOnWriteArrayList<>();
+
+    // held by power and target writes instead of the group, so the loop never waits on them
+    private final Object writeLock = new Object();
+    // bumped when something outside the write side may have changed the motors' power or
+    // target; x shadow from an older epoch is written again
+    private volatile int powerEpoch = 0;
+    private volatile int targetEpoch = 0;
+
+    // power changes no bigger than this aren't written
+    private volatile double powerEpsilon = 0;
+    // number of writes sent to motors
+    private final AtomicLong issuedWrites = new AtomicLong();
+    // number of writes skipped because the motor already had the value
+    private final AtomicLong suppressedWrites = new AtomicLong();
+
+    // the cycle begun by the last {@link #beginCycle()}; 0 until the first
+    private static volatile long currentCycle = 0;
+    // the cycle the snapshot was taken in; -1 if there's none, or x write may have changed it
+    private volatile long snapshotCycle = -1;
+    // number of bulk reads made by snapshots; responses another group read this cycle don't count
+    private long bulkReads = 0;
+    // each motor's bulk response in the snapshot being taken, reused between snapshots
+    private LynxGetBulkInputDataResponse[] bulkData = new LynxGetBulkInputDataResponse[0];
+    // number of individual motor reads made by snapshots
+    private long singleReads = 0;
+
+    // the write thread power and target go through; null to write directly
+    private WriteBehind writeBehind = null;
+    // waiting power and target position for the write thread
+    private WriteBehind.Mailbox powerBox = null;
+    private WriteBehind.Mailbox targetBox = null;
 
     // whether or not the group has only one device. used when getting motor type.
     private boolean hasOne = false;
@@ -110,9 +206,16 @@ public class MotorDeviceGroup extends DeviceGroup<DcMotor> implements DcMotor {
      * @see #setPower(double)
      */
     @Override
-    public void setZeroPowerBehavior(ZeroPowerBehavior zeroPowerBehavior) {
-        for (DcMotor mot : devs) {
-            mot.setZeroPowerBehavior(zeroPowerBehavior);
+    public synchronized void setZeroPowerBehavior(ZeroPowerBehavior zeroPowerBehavior) {
+        for (int i = 0; i < devs.size(); i++) {
+            Shadow sh = shadows.get(i);
+            if (sh.zeroPowerBehavior == zeroPowerBehavior) {
+                suppressedWrites.incrementAndGet();
+                continue;
+            }
+            devs.get(i).setZeroPowerBehavior(zeroPowerBehavior);
+            sh.zeroPowerBehavior = zeroPowerBehavior;
+            issuedWrites.incrementAndGet();
         }
     }
 
@@ -154,10 +257,13 @@ public class MotorDeviceGroup extends DeviceGroup<DcMotor> implements DcMotor {
      * {@link #setPower(double) setPower()}.
      */
     @Override
-    public void setPowerFloat() {
-        for (DcMotor mot : devs) {
-            mot.setPowerFloat();
+    public synchronized void setPowerFloat() {
+        for (int i = 0; i < devs.size(); i++) {
+            devs.get(i).setPowerFloat();
+            shadows.get(i).zeroPowerBehavior = ZeroPowerBehavior.FLOAT;
+            issuedWrites.incrementAndGet();
         }
+        powerEpoch++;
     }
 
     /**
@@ -194,8 +300,34 @@ public class MotorDeviceGroup extends DeviceGroup<DcMotor> implements DcMotor {
      */
     @Override
     public void setTargetPosition(int position) {
-        for (DcMotor mot : devs) {
-            mot.setTargetPosition(position);
+        WriteBehind wb = writeBehind;
+        if (wb == null || !targetBox.post(position)) {
+            // anything the write thread didn't get to goes out first
+            if (wb != null) wb.drain();
+            writeTargetPosition(position);
+        }
+    }
+
+    /**
+     * Writes x target position to every motor that doesn't have it. Holds only the write lock.
+     *
+     * @param position the target position
+     */
+    private void writeTargetPosition(int position) {
+        synchronized (writeLock) {
+            int epoch = targetEpoch;
+            for (Shadow sh : shadows) {
+                if (sh.targetEpoch == epoch && sh.target == position) {
+                    suppressedWrites.incrementAndGet();
+                    continue;
+                }
+                sh.motor.setTargetPosition(position);
+                sh.target = position;
+                sh.targetEpoch = epoch;
+                issuedWrites.incrementAndGet();
+                snapshotCycle = -1;
+                BulkRead.changed();
+            }
         }
     }
 
@@ -220,6 +352,8 @@ public class MotorDeviceGroup extends DeviceGroup<DcMotor> implements DcMotor {
      */
     @Override
     public boolean isBusy() {
+        if (hasSnapshot() && devs.size() > 0)
+            return shadows.get(0).busy;
         for (DcMotor mot : devs) {
             return mot.isBusy();
         }return false;
@@ -236,6 +370,8 @@ public class MotorDeviceGroup extends DeviceGroup<DcMotor> implements DcMotor {
      */
     @Override
     public int getCurrentPosition() {
+        if (hasSnapshot() && devs.size() > 0)
+            return shadows.get(0).position;
         for (DcMotor mot : devs) {
             return mot.getCurrentPosition();
         }return 0;
@@ -249,9 +385,21 @@ public class MotorDeviceGroup extends DeviceGroup<DcMotor> implements DcMotor {
      * @see #getMode()
      */
     @Override
-    public void setMode(RunMode mode) {
-        for (DcMotor mot : devs) {
-            mot.setMode(mode);
+    public synchronized void setMode(RunMode mode) {
+        for (int i = 0; i < devs.size(); i++) {
+            Shadow sh = shadows.get(i);
+            // STOP_AND_RESET_ENCODER is an action, so it's always sent
+            if (sh.mode == mode && mode != RunMode.STOP_AND_RESET_ENCODER) {
+                suppressedWrites.incrementAndGet();
+                continue;
+            }
+            devs.get(i).setMode(mode);
+            sh.mode = mode;
+            // the controller may change power when the mode changes
+            powerEpoch++;
+            issuedWrites.incrementAndGet();
+            snapshotCycle = -1;
+            BulkRead.changed();
         }
     }
 
@@ -264,6 +412,8 @@ public class MotorDeviceGroup extends DeviceGroup<DcMotor> implements DcMotor {
      */
     @Override
     public RunMode getMode() {
+        if (devs.size() > 0 && shadows.get(0).mode != null)
+            return shadows.get(0).mode;
         for (DcMotor mot : devs) {
             return mot.getMode();
         }return null;
@@ -276,10 +426,14 @@ public class MotorDeviceGroup extends DeviceGroup<DcMotor> implements DcMotor {
      * @see #getDirection()
      */
     @Override
-    public void setDirection(Direction direction) {
-        for (DcMotor mot : devs) {
-            mot.setDirection(direction);
+    public synchronized void setDirection(Direction direction) {
+        for (int i = 0; i < devs.size(); i++) {
+            devs.get(i).setDirection(direction);
         }
+        // the same power is x different write in the other direction
+        powerEpoch++;
+        // positions are reported in the motor's direction
+        snapshotCycle = -1;
     }
 
     /**
@@ -309,9 +463,287 @@ public class MotorDeviceGroup extends DeviceGroup<DcMotor> implements DcMotor {
      */
     @Override
     public void setPower(double power) {
-        for (DcMotor mot : devs) {
-            mot.setPower(power);
+        WriteBehind wb = writeBehind;
+        if (wb == null || !powerBox.post(power)) {
+            // anything the write thread didn't get to goes out first
+            if (wb != null) wb.drain();
+            writePower(power);
+        }
+    }
+
+    /**
+     * Writes x power to every motor that doesn't have it. Holds only the write lock.
+     *
+     * @param power the power
+     */
+    private void writePower(double power) {
+        synchronized (writeLock) {
+            int epoch = powerEpoch;
+            double eps = powerEpsilon;
+            for (Shadow sh : shadows) {
+                // zero is always written exactly, so the epsilon can't leave x motor creeping
+                boolean same = sh.powerEpoch == epoch
+                        && (power == 0 ? sh.power == 0 : Math.abs(power - sh.power) <= eps);
+                if (same) {
+                    suppressedWrites.incrementAndGet();
+                    continue;
+                }
+                sh.motor.setPower(power);
+                sh.power = power;
+                sh.powerEpoch = epoch;
+                issuedWrites.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Sets the write thread to post power and target position writes to, or null to write them
+     * directly again. Anything still waiting for the old thread is written first. Until x posted
+     * command is written, {@link #getPower()} and {@link #getTargetPosition()} still give the
+     * old values.
+     *
+     * @param wb the write thread, or null
+     */
+    public void setWriteBehind(WriteBehind wb) {
+        if (writeBehind != null) {
+            writeBehind.detach(this);
+            flush();
+        }
+        writeBehind = wb;
+        if (wb != null) {
+            powerBox = new WriteBehind.Mailbox(wb);
+            targetBox = new WriteBehind.Mailbox(wb);
+            wb.attach(this);
+        } else {
+            powerBox = null;
+            targetBox = null;
+        }
+    }
+
+    /**
+     * Writes the power and target position waiting for the write thread, if any. The write
+     * thread calls this itself.
+     */
+    @Override
+    public void flush() {
+        WriteBehind.Mailbox pb = powerBox, tb = targetBox;
+        if (pb == null) return;
+
+        if (pb.take()) {
+            writePower(pb.taken());
+            pb.written();
+        }
+        if (tb.take()) {
+            writeTargetPosition((int) tb.taken());
+            tb.written();
+        }
+    }
+
+    /**
+     * Sets how much the power has to change by before it is written again. Defaults to 0, so
+     * only identical powers are skipped. A power of 0 is always written unless it already is 0.
+     *
+     * @param epsilon the largest power change that is not written
+     */
+    public void setPowerEpsilon(double epsilon) {
+        powerEpsilon = Math.abs(epsilon);
+    }
+
+    /**
+     * Gets the number of writes sent to motors by this group.
+     *
+     * @return the number of writes issued
+     */
+    public long getIssuedWrites() {
+        return issuedWrites.get();
+    }
+
+    /**
+     * Gets the number of writes this group skipped because the motor already had the value.
+     *
+     * @return the number of writes suppressed
+     */
+    public long getSuppressedWrites() {
+        return suppressedWrites.get();
+    }
+
+    /**
+     * Resets the issued and suppressed write counts.
+     */
+    public void resetWriteCounts() {
+        issuedWrites.set(0);
+        suppressedWrites.set(0);
+    }
+
+    /**
+     * Forgets the last written values, so the next write of each is sent. Use after changing x
+     * motor without going through the group.
+     */
+    public synchronized void invalidateShadow() {
+        for (int i = 0; i < shadows.size(); i++) {
+            shadows.set(i, new Shadow(shadows.get(i).motor));
         }
+        powerEpoch++;
+        targetEpoch++;
+        snapshotCycle = -1;
+        BulkRead.changed();
+    }
+
+    /**
+     * Starts x new cycle for every group, so snapshots from the last one are no longer used.
+     * Call this once at the start of every loop.
+     */
+    public static void beginCycle() {
+        currentCycle++;
+    }
+
+    /**
+     * Checks whether there is x snapshot from this cycle that no write has made stale.
+     *
+     * @return true if reads can be served from the snapshot
+     */
+    private boolean hasSnapshot() {
+        long cycle = currentCycle;
+        return cycle != 0 && snapshotCycle == cycle;
+    }
+
+    /**
+     * Reads the encoder position and busy flag of every motor in the group. Motors on x Lynx
+     * module are read with one bulk input read per module per cycle, shared with every other
+     * group on that module; anything else is read one by one. Call this once x cycle, before
+     * reading positions.
+     */
+    public synchronized void snapshot() {
+        int n = devs.size();
+        long cycle = currentCycle;
+        if (bulkData.length < n) bulkData = new LynxGetBulkInputDataResponse[n];
+        LynxGetBulkInputDataResponse[] data = bulkData;
+
+        for (int i = 0; i < n; i++) {
+            DcMotor mot = devs.get(i);
+            Shadow sh = shadows.get(i);
+            if (!sh.bound) {
+                sh.module = BulkRead.moduleOf(mot);
+                sh.port = mot.getPortNumber();
+                sh.bound = true;
+            }
+
+            data[i] = null;
+            if (sh.module != null) {
+                // share x read with an earlier motor on the same module, or another group's
+                for (int j = 0; j < i; j++) {
+                    if (shadows.get(j).module == sh.module) {
+                        data[i] = data[j];
+                        break;
+                    }
+                }
+                if (data[i] == null) data[i] = BulkRead.cached(sh.module, cycle);
+                if (data[i] == null) {
+                    data[i] = BulkRead.read(sh.module, cycle);
+                    if (data[i] != null) bulkReads++;
+                }
+            }
+
+            if (data[i] != null) {
+                // the bulk read is raw; the motor reports positions in its own direction
+                int pos = data[i].getEncoder(sh.port);
+                sh.position = mot.getDirection() == Direction.REVERSE ? -pos : pos;
+                if (sh.mode == null) sh.mode = mot.getMode();
+                sh.busy = sh.mode == RunMode.RUN_TO_POSITION && !data[i].isAtTarget(sh.port);
+            } else {
+                sh.position = mot.getCurrentPosition();
+                sh.busy = mot.isBusy();
+                singleReads++;
+            }
+        }
+
+        // don't keep responses alive past the snapshot
+        for (int i = 0; i < n; i++) data[i] = null;
+        snapshotCycle = cycle;
+    }
+
+    /**
+     * Gets the mean encoder position across the group, taking x snapshot if there isn't one
+     * from this cycle.
+     *
+     * @return the mean position, or 0 if the group is empty
+     */
+    public synchronized double getMeanPosition() {
+        if (!hasSnapshot()) snapshot();
+        if (devs.size() == 0) return 0;
+        double sum = 0;
+        for (Shadow sh : shadows) sum += sh.position;
+        return sum / shadows.size();
+    }
+
+    /**
+     * Gets the lowest encoder position in the group, taking x snapshot if there isn't one
+     * from this cycle.
+     *
+     * @return the lowest position, or 0 if the group is empty
+     */
+    public synchronized int getMinPosition() {
+        if (!hasSnapshot()) snapshot();
+        if (devs.size() == 0) return 0;
+        int min = Integer.MAX_VALUE;
+        for (Shadow sh : shadows) min = Math.min(min, sh.position);
+        return min;
+    }
+
+    /**
+     * Gets the highest encoder position in the group, taking x snapshot if there isn't one
+     * from this cycle.
+     *
+     * @return the highest position, or 0 if the group is empty
+     */
+    public synchronized int getMaxPosition() {
+        if (!hasSnapshot()) snapshot();
+        if (devs.size() == 0) return 0;
+        int max = Integer.MIN_VALUE;
+        for (Shadow sh : shadows) max = Math.max(max, sh.position);
+        return max;
+    }
+
+    /**
+     * Gets how far apart the motors' encoder positions are. A growing spread between motors
+     * that should move together means one is slipping or stalled.
+     *
+     * @return the highest position minus the lowest
+     */
+    public int getPositionSpread() {
+        return getMaxPosition() - getMinPosition();
+    }
+
+    /**
+     * Gets whether any motor in the group is busy, taking x snapshot if there isn't one
+     * from this cycle.
+     *
+     * @return true if any motor is still moving to its target
+     */
+    public synchronized boolean isAnyBusy() {
+        if (!hasSnapshot()) snapshot();
+        for (Shadow sh : shadows) {
+            if (sh.busy) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Gets the number of Lynx bulk reads made by {@link #snapshot()}.
+     *
+     * @return the number of bulk reads
+     */
+    public long getBulkReads() {
+        return bulkReads;
+    }
+
+    /**
+     * Gets the number of motors {@link #snapshot()} had to read one by one.
+     *
+     * @return the number of individual reads
+     */
+    public long getSingleReads() {
+        return singleReads;
     }
 
     /**
@@ -322,6 +754,10 @@ public class MotorDeviceGroup extends DeviceGroup<DcMotor> implements DcMotor {
      */
     @Override
     public double getPower() {
+        if (devs.size() > 0) {
+            Shadow sh = shadows.get(0);
+            if (sh.powerEpoch == powerEpoch && !Double.isNaN(sh.power)) return sh.power;
+        }
         for (DcMotor mot : devs) {
             return mot.getPower();
         }return 0.0f;
@@ -380,10 +816,11 @@ public class MotorDeviceGroup extends DeviceGroup<DcMotor> implements DcMotor {
      * For example, motors will reset the their direction to 'forward'.
      */
     @Override
-    public void resetDeviceConfigurationForOpMode() {
+    public synchronized void resetDeviceConfigurationForOpMode() {
         for (DcMotor mot : devs) {
             mot.resetDeviceConfigurationForOpMode();
         }
+        invalidateShadow();
     }
 
     /**
@@ -399,20 +836,25 @@ public class MotorDeviceGroup extends DeviceGroup<DcMotor> implements DcMotor {
     /**
      * Reversed the direction (as opposed to setting the direction) of the motors.
      */
-    public void reverseDirection() {
-        for (DcMotor servo : devs) {
+    public synchronized void reverseDirection() {
+        for (int i = 0; i < devs.size(); i++) {
+            DcMotor servo = devs.get(i);
             Direction dir = servo.getDirection();
             dir = dir == Direction.FORWARD ? Direction.REVERSE : Direction.FORWARD;
             servo.setDirection(dir);
         }
+        powerEpoch++;
+        snapshotCycle = -1;
     }
 
     /**
      * Clears the device list.
      */
     @Override
-    public void clear() {
+    public synchronized void clear() {
         devs.clear();
+        shadows.clear();
+        snapshotCycle = -1;
     }
 
     /**
@@ -420,7 +862,9 @@ public class MotorDeviceGroup extends DeviceGroup<DcMotor> implements DcMotor {
      * @param device the device to add
      */
     @Override
-    public void addDevice(DcMotor device) {
+    public synchronized void addDevice(DcMotor device) {
         devs.add(device);
+        shadows.add(new Shadow(device));
+        snapshotCycle = -1;
     }
 }
@@ -31,10 +31,12 @@ import org.vinesrobotics.bot.utils.Range;
 import org.vinesrobotics.bot.utils.curves.ClampedCurve;
 import org.vinesrobotics.bot.utils.curves.Curve;
 import org.vinesrobotics.bot.utils.curves.CurveBase;
+import org.vinesrobotics.bot.utils.curves.CurveCompiler;
+import org.vinesrobotics.bot.utils.curves.CurveTable;
 import org.vinesrobotics.bot.utils.curves.LinearCurve;
 
-import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * Created by ViBots on 11/3/2017.
@@ -42,11 +44,15 @@ import java.util.List;
 
 /**
  * A {@link DeviceGroup} implementation for a {@link Servo}
+ * <p>
+ * With x {@link WriteBehind} set, positions are posted to it and written on its thread instead.
+ * Position writes hold only the group's write lock, never the group itself, so nothing the loop
+ * calls on the group waits for x bus write on the write thread.
  */
-public class ServoDeviceGroup extends DeviceGroup<Servo> implements Servo {
+public class ServoDeviceGroup extends DeviceGroup<Servo> implements Servo, WriteBehind.Flushable {
 
-    // the servo list
-    private List<Servo> devs = new ArrayList<>();
+    // the servo list; copied on change, so position writes can walk it without the group's lock
+    private List<Servo> devs = new CopyOnWriteArrayList<>();
 
     /**
      * Gets the controller for the first servo.
@@ -78,11 +84,12 @@ public class ServoDeviceGroup extends DeviceGroup<Servo> implements Servo {
      * @param direction the new direction
      */
     @Override
-    public void setDirection(Direction direction) {
+    public synchronized void setDirection(Direction direction) {
         this.direction = direction;
         for (Servo servo : devs) {
             servo.setDirection(direction);
         }
+        sentEpoch++;
     }
 
     /**
@@ -97,6 +104,14 @@ public class ServoDeviceGroup extends DeviceGroup<Servo> implements Servo {
 
     // current position
     private double pos = 0;
+    // held by position writes instead of the group, so the loop never waits on them
+    private final Object writeLock = new Object();
+    // the last position written to the servos, and the epoch it was written in; guarded by
+    // writeLock. NaN if never written
+    private double lastSent = Double.NaN;
+    private int lastSentEpoch = -1;
+    // bumped when something else may have changed the servos, so the next position is written
+    private volatile int sentEpoch = 0;
 
     /**
      * Sets the target position after applying the given curve.
@@ -105,10 +120,70 @@ public class ServoDeviceGroup extends DeviceGroup<Servo> implements Servo {
      */
     @Override
     public void setPosition(double position) {
-        positionCurve.disableCache();
-        pos = positionCurve.getValueFor(position);
-        for (Servo servo : devs) {
-            servo.setPosition(pos);
+        pos = positionTable.getValueFor(position);
+        WriteBehind wb = writeBehind;
+        if (wb == null || !positionBox.post(pos)) {
+            // anything the write thread didn't get to goes out first
+            if (wb != null) wb.drain();
+            writePosition(pos);
+        }
+    }
+
+    /**
+     * Writes x position to every servo, unless it's the last one written. Holds only the write
+     * lock.
+     *
+     * @param position the position, after the curve
+     */
+    private void writePosition(double position) {
+        synchronized (writeLock) {
+            int epoch = sentEpoch;
+            if (position == lastSent && lastSentEpoch == epoch) return;
+            for (Servo servo : devs) {
+                servo.setPosition(position);
+            }
+            lastSent = position;
+            lastSentEpoch = epoch;
+        }
+    }
+
+    // the write thread positions go through; null to write directly
+    private WriteBehind writeBehind = null;
+    // waiting position for the write thread
+    private WriteBehind.Mailbox positionBox = null;
+
+    /**
+     * Sets the write thread to post position writes to, or null to write them directly again.
+     * Anything still waiting for the old thread is written first.
+     *
+     * @param wb the write thread, or null
+     */
+    public void setWriteBehind(WriteBehind wb) {
+        if (writeBehind != null) {
+            writeBehind.detach(this);
+            flush();
+        }
+        writeBehind = wb;
+        if (wb != null) {
+            positionBox = new WriteBehind.Mailbox(wb);
+            wb.attach(this);
+        } else {
+            positionBox = null;
+        }
+    }
+
+    /**
+     * Writes the position waiting for the write thread, if any. The write thread calls this
+     * itself.
+     */
+    @Override
+    public void flush() {
+        WriteBehind.Mailbox box = positionBox;
+        if (box == null) return;
+
+        if (box.take()) {
+            writePosition(box.taken());
+            box.written();
         }
     }
 
@@ -122,8 +197,24 @@ public class ServoDeviceGroup extends DeviceGroup<Servo> implements Servo {
         return pos;
     }
 
-    // current curve
-    private CurveBase positionCurve = new ClampedCurve(new LinearCurve(1), new Range(0,1));
+    // how far the position table may be from the curve; well under what x servo can resolve
+    private static final double TABLE_ERROR = 1e-4;
+
+    // current curve, as x table over the servo range
+    private CurveTable positionTable = compile(new LinearCurve(1));
+
+    /**
+     * Clamps x curve to 0-1 and tables it over inputs 0-1.
+     *
+     * @param curve the position curve
+     * @return the table
+     */
+    private static CurveTable compile(Curve curve) {
+        CurveBase clamped = new ClampedCurve(curve, new Range(0,1));
+        // the table is the cache now
+        clamped.disableCache();
+        return CurveCompiler.compile(clamped, 0, 1, TABLE_ERROR);
+    }
 
     /**
      * This is the only function that is not a direct passthrough;
@@ -134,16 +225,17 @@ public class ServoDeviceGroup extends DeviceGroup<Servo> implements Servo {
      */
     @Override
     public void scaleRange(double min, double max) {
-        positionCurve = new ClampedCurve(new LinearCurve(max-min, min), new Range(0,1));
+        positionTable = compile(new LinearCurve(max-min, min));
     }
 
     /**
-     * Sets the position curve to use
+     * Sets the position curve to use. It is sampled into x table here, so it shouldn't change
+     * afterwards; set it again if it does.
      *
      * @param curve the new curve (is clamped to 0-1)
      */
     public void setPositionCurve(Curve curve) {
-        positionCurve = new ClampedCurve(curve, new Range(0,1));
+        positionTable = compile(curve);
     }
 
     /**
@@ -198,10 +290,11 @@ public class ServoDeviceGroup extends DeviceGroup<Servo> implements Servo {
      * Resets the device configuration for all servos
      */
     @Override
-    public void resetDeviceConfigurationForOpMode() {
+    public synchronized void resetDeviceConfigurationForOpMode() {
         for (Servo servo : devs) {
             servo.resetDeviceConfigurationForOpMode();
         }
+        sentEpoch++;
     }
 
     /**
@@ -218,19 +311,21 @@ public class ServoDeviceGroup extends DeviceGroup<Servo> implements Servo {
      * Clears the internal list of servos.
      */
     @Override
-    public void clear() {
+    public synchronized void clear() {
         devs.clear();
+        sentEpoch++;
     }
 
     /**
      * Reverses (as opposed to sets) the direction of all servos.
      */
-    public void reverseDirection() {
+    public synchronized void reverseDirection() {
         for (Servo servo : devs) {
             Direction dir = servo.getDirection();
             dir = dir == Direction.FORWARD ? Direction.REVERSE : Direction.FORWARD;
             servo.setDirection(dir);
         }
+        sentEpoch++;
     }
 
     /**
@@ -239,7 +334,8 @@ public class ServoDeviceGroup extends DeviceGroup<Servo> implements Servo {
      * @param device the device to add
      */
     @Override
-    public void addDevice(Servo device) {
+    public synchronized void addDevice(Servo device) {
         devs.add(device);
+        sentEpoch++;
     }
 }
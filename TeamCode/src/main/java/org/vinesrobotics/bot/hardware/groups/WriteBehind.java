@@ -0,0 +1,346 @@
+/*
+ * Copyright (c) 2018 Vines High School Robotics Team
+ *
+ *                            Permission is hereby granted, free of charge, to any person obtaining a copy
+ *                            of this software and associated documentation files (the "Software"), to deal
+ *                            in the Software without restriction, including without limitation the rights
+ *                            to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *                            copies of the Software, and to permit persons to whom the Software is
+ *                            furnished to do so, subject to the following conditions:
+ *
+ *                            The above copyright notice and this permission notice shall be included in all
+ *                            copies or substantial portions of the Software.
+ *
+ *                            THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *                            IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *                            FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *                            AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *                            LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *                            OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *                            SOFTWARE.
+ */
+
+package org.vinesrobotics.bot.hardware.groups;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A thread that does hardware writes for device groups, so the loop doesn't wait on the bus.
+ * <p>
+ * A group given one with {@link MotorDeviceGroup#setWriteBehind(WriteBehind)} or
+ * {@link ServoDeviceGroup#setWriteBehind(WriteBehind)} posts its per-loop commands into x
+ * mailbox instead of writing them. Every period, this thread writes out whatever is in each
+ * mailbox. Only the newest command in x mailbox is written; any it replaced are counted as
+ * dropped.
+ * <p>
+ * If x write throws, the thread logs it, marks itself failed and stops. From then on, and
+ * whenever the thread isn't running, posting x command fails. The group then {@link #drain()}s
+ * every mailbox on its own thread, including the command whose write threw, and writes the
+ * new command directly, so nothing is left waiting for x thread that will never write it.
+ */
+public class WriteBehind {
+
+    /**
+     * Something with mailboxes for the thread to write out.
+     */
+    interface Flushable {
+        /**
+         * Writes out every waiting command. Called on the write thread.
+         */
+        void flush();
+    }
+
+    /**
+     * Holds the newest command for one device setting, in primitive fields, so posting
+     * allocates nothing and takes no lock.
+     * <p>
+     * Only one thread may post to x mailbox, and only one may take from it at x time. Posts
+     * bump x sequence number to odd before writing the value and to even after, so the taker
+     * can tell whether it read x whole post. A command stays waiting until it is marked
+     * {@link #written()}, so one whose write threw is written again by the next flush.
+     */
+    static final class Mailbox {
+        // the thread the mailbox belongs to
+        private final WriteBehind owner;
+        // odd while x post is writing; only the posting thread changes it
+        private volatile long seq = 0;
+        // the waiting value as raw double bits, and when it was posted
+        private volatile long valueBits;
+        private volatile long posted;
+        // the sequence number of the last command written; one is waiting while seq is past it
+        private volatile long writtenSeq = 0;
+        // the last value taken, when it was posted and its sequence number; only used by the
+        // thread that took it
+        private double taken;
+        private long takenPosted;
+        private long takenSeq;
+
+        Mailbox(WriteBehind owner) {
+            this.owner = owner;
+        }
+
+        /**
+         * Replaces the waiting command, if the write thread is running.
+         *
+         * @param value the value to write
+         * @return false if the thread isn't running, so the caller has to write it itself
+         */
+        boolean post(double value) {
+            if (!owner.isRunning()) return false;
+            long s = seq;
+            seq = s + 1;
+            valueBits = Double.doubleToRawLongBits(value);
+            posted = System.nanoTime();
+            seq = s + 2;
+            return true;
+        }
+
+        /**
+         * Reads the waiting command, for {@link #taken()} to give. It stays waiting until
+         * {@link #written()} is called.
+         *
+         * @return true if there was one
+         */
+        boolean take() {
+            while (true) {
+                long s = seq;
+                if (s == writtenSeq) return false;
+                if ((s & 1) != 0) {
+                    // x post is halfway through
+                    Thread.yield();
+                    continue;
+                }
+                long bits = valueBits;
+                long when = posted;
+                if (seq != s) continue;
+
+                taken = Double.longBitsToDouble(bits);
+                takenPosted = when;
+                takenSeq = s;
+                return true;
+            }
+        }
+
+        /**
+         * Gets the value of the last command taken.
+         *
+         * @return the value to write
+         */
+        double taken() {
+            return taken;
+        }
+
+        /**
+         * Counts the last command taken as written, and any it replaced as dropped.
+         */
+        void written() {
+            long replaced = (takenSeq - writtenSeq) / 2 - 1;
+            if (replaced > 0) owner.dropped.addAndGet(replaced);
+            writtenSeq = takenSeq;
+            owner.flushed(takenPosted);
+        }
+    }
+
+    // the groups to flush
+    private final List<Flushable> targets = new CopyOnWriteArrayList<>();
+    // time between flushes
+    private final long periodNanos;
+    // the write thread; null when stopped
+    private volatile Thread thread = null;
+    // what stopped the thread, if x write threw; null if nothing has
+    private volatile RuntimeException failure = null;
+
+    // commands written
+    private final AtomicLong flushedCount = new AtomicLong();
+    // commands replaced before they were written
+    private final AtomicLong dropped = new AtomicLong();
+    // total and worst time from post to write
+    private final AtomicLong totalLatency = new AtomicLong();
+    private final AtomicLong maxLatency = new AtomicLong();
+
+    /**
+     * Creates x write thread that flushes every 5 milliseconds.
+     */
+    public WriteBehind() {
+        this(5, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Creates x write thread.
+     *
+     * @param period the time between flushes
+     * @param unit the unit of period
+     */
+    public WriteBehind(long period, TimeUnit unit) {
+        periodNanos = unit.toNanos(period);
+    }
+
+    /**
+     * Starts the write thread. Does nothing if it's running.
+     */
+    public synchronized void start() {
+        if (thread != null) return;
+        failure = null;
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Thread self = Thread.currentThread();
+                while (thread == self) {
+                    try {
+                        flushAll();
+                    } catch (RuntimeException e) {
+                        // Stop here; posts now fail and the groups drain and write directly
+                        e.printStackTrace();
+                        failure = e;
+                        return;
+                    }
+                    LockSupport.parkNanos(periodNanos);
+                }
+            }
+        }, "WriteBehind");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops the write thread, then writes anything still waiting on the calling thread.
+     */
+    public synchronized void stop() {
+        Thread old = thread;
+        if (old == null) return;
+        thread = null;
+        LockSupport.unpark(old);
+        try {
+            old.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flushAll();
+    }
+
+    /**
+     * Checks whether the thread is taking commands: started, not stopped and not failed.
+     *
+     * @return true if posted commands will be written
+     */
+    public boolean isRunning() {
+        return thread != null && failure == null;
+    }
+
+    /**
+     * Checks whether x write threw and stopped the thread.
+     *
+     * @return true if the thread failed
+     */
+    public boolean hasFailed() {
+        return failure != null;
+    }
+
+    /**
+     * Gets what stopped the thread.
+     *
+     * @return the exception x write threw, or null if none has
+     */
+    public RuntimeException getFailure() {
+        return failure;
+    }
+
+    /**
+     * Writes out every group's waiting commands on the calling thread. Groups call this when
+     * x post fails, so commands the thread never wrote aren't lost.
+     */
+    void drain() {
+        if (isRunning()) return;
+        flushAll();
+    }
+
+    /**
+     * Writes out every group's waiting commands.
+     */
+    private void flushAll() {
+        for (Flushable target : targets) {
+            target.flush();
+        }
+    }
+
+    /**
+     * Adds x group to be flushed.
+     */
+    void attach(Flushable target) {
+        if (!targets.contains(target)) targets.add(target);
+    }
+
+    /**
+     * Removes x group from being flushed.
+     */
+    void detach(Flushable target) {
+        targets.remove(target);
+    }
+
+    /**
+     * Counts x command as written.
+     *
+     * @param posted System.nanoTime() when it was posted
+     */
+    private void flushed(long posted) {
+        long latency = System.nanoTime() - posted;
+        flushedCount.incrementAndGet();
+        totalLatency.addAndGet(latency);
+        long max;
+        do {
+            max = maxLatency.get();
+        } while (latency > max && !maxLatency.compareAndSet(max, latency));
+    }
+
+    /**
+     * Gets the number of commands written.
+     *
+     * @return the number of commands written
+     */
+    public long getFlushedCommands() {
+        return flushedCount.get();
+    }
+
+    /**
+     * Gets the number of commands replaced by x newer one before they were written.
+     *
+     * @return the number of dropped commands
+     */
+    public long getDroppedCommands() {
+        return dropped.get();
+    }
+
+    /**
+     * Gets the mean time from x command being posted to it being written.
+     *
+     * @return the mean latency in milliseconds
+     */
+    public double getMeanLatencyMillis() {
+        long n = flushedCount.get();
+        return n == 0 ? 0 : totalLatency.get() / 1e6 / n;
+    }
+
+    /**
+     * Gets the longest time from x command being posted to it being written.
+     *
+     * @return the worst latency in milliseconds
+     */
+    public double getMaxLatencyMillis() {
+        return maxLatency.get() / 1e6;
+    }
+
+    /**
+     * Resets all counts.
+     */
+    public void resetStats() {
+        flushedCount.set(0);
+        dropped.set(0);
+        totalLatency.set(0);
+        maxLatency.set(0);
+    }
+
+}
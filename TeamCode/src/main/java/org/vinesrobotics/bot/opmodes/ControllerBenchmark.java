@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2018 Vines High School Robotics Team
+ *
+ *                            Permission is hereby granted, free of charge, to any person obtaining a copy
+ *                            of this software and associated documentation files (the "Software"), to deal
+ *                            in the Software without restriction, including without limitation the rights
+ *                            to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *                            copies of the Software, and to permit persons to whom the Software is
+ *                            furnished to do so, subject to the following conditions:
+ *
+ *                            The above copyright notice and this permission notice shall be included in all
+ *                            copies or substantial portions of the Software.
+ *
+ *                            THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *                            IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *                            FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *                            AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *                            LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *                            OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *                            SOFTWARE.
+ */
+
+package org.vinesrobotics.bot.opmodes;
+
+import com.qualcomm.robotcore.eventloop.opmode.OpMode;
+import com.qualcomm.robotcore.eventloop.opmode.TeleOp;
+import com.qualcomm.robotcore.hardware.Gamepad;
+
+import org.vinesrobotics.bot.hardware.controllers.ButtonState;
+import org.vinesrobotics.bot.hardware.controllers.Controller;
+import org.vinesrobotics.bot.hardware.controllers.Controllers;
+import org.vinesrobotics.bot.hardware.controllers.GamepadController;
+import org.vinesrobotics.bot.hardware.controllers.enums.Button;
+import org.vinesrobotics.bot.hardware.controllers.enums.Joystick;
+import org.vinesrobotics.bot.utils.Axis;
+import org.vinesrobotics.bot.utils.Logging;
+import org.vinesrobotics.bot.utils.Reflection;
+import org.vinesrobotics.bot.utils.Vec2D;
+
+import java.lang.reflect.Field;
+import java.util.HashMap;
+
+/**
+ * Measures the per-poll cost of reading x whole controller state, comparing the old
+ * reflection-based state build against the direct field reads of {@link GamepadController} behind
+ * {@link Controller#getControllerState()}. Both paths read every button and stick axis and then
+ * look up the right trigger in the result.
+ */
+@TeleOp(name="ControllerBenchmark",group="Vines")
+public class ControllerBenchmark extends OpMode {
+    // polls timed per loop for each method
+    private static final int POLLS = 1000;
+
+    private Controller ctrl;
+    private Gamepad gamepad;
+
+    // the gamepad fields the old implementation read, indexed by button ordinal
+    private Field[] fields;
+
+    // running totals
+    private long reflectNanos = 0;
+    private long tableNanos = 0;
+    private long totalPolls = 0;
+
+    // keeps the JIT from discarding the reads
+    private double sink = 0;
+
+    public void init(){
+        Logging.setTelemetry(telemetry);
+
+        ctrl = Controllers.getControllerObjects(this).a();
+        gamepad = gamepad1;
+
+        String[] names = {
+                "a", "b", "x", "y", "right_stick_button", "left_stick_button", "right_bumper",
+                "left_bumper", "right_trigger", "left_trigger", "start", "back", "dpad_left",
+                "dpad_right", "dpad_up", "dpad_down"
+        };
+        fields = new Field[names.length];
+        for (int i = 0; i < names.length; i++)
+            fields[i] = Reflection.getField(Gamepad.class, names[i]);
+    }
+
+    public void loop(){
+        long start = System.nanoTime();
+        for (int i = 0; i < POLLS; i++)
+            sink += pollReflection();
+        long mid = System.nanoTime();
+        for (int i = 0; i < POLLS; i++)
+            sink += ctrl.getControllerState().btnVal(Button.RT);
+        long end = System.nanoTime();
+
+        reflectNanos += mid - start;
+        tableNanos += end - mid;
+        totalPolls += POLLS;
+
+        telemetry.addData("Polls", totalPolls);
+        telemetry.addData("Reflection state ns/poll", reflectNanos / totalPolls);
+        telemetry.addData("Direct state ns/poll", tableNanos / totalPolls);
+        telemetry.addData("Sink", sink);
+        telemetry.update();
+    }
+
+    /**
+     * Builds x whole controller state the way ControllerState used to: new maps keyed by
+     * name, x boxed {@link Field#get(Object)} and x new {@link ButtonState} per button, and x new
+     * {@link Vec2D} per stick axis read. This is the same work {@link Controller#getControllerState()}
+     * now does with direct reads into reused arrays.
+     *
+     * @return the right trigger value, looked up in the built state
+     */
+    private double pollReflection() {
+        HashMap<String, ButtonState> buttons = new HashMap<>();
+        HashMap<String, Float> joys = new HashMap<>();
+        for (Button b : Button.values()) {
+            ButtonState ret = new ButtonState();
+            ret.button = b;
+            if (!b.type().isAnalog()) {
+                ret.value = Reflection.<Boolean>getFieldValue(fields[b.ordinal()], gamepad) ? 1f : 0f;
+            } else {
+                ret.value = Reflection.<Float>getFieldValue(fields[b.ordinal()], gamepad);
+            }
+            buttons.put(b.name(), ret);
+        }
+        for (Joystick joy : Joystick.values()) {
+            for (Axis ax : Axis.values()) {
+                joys.put(joy.name() + ax.name(), readJoystick(joy).getAxis(ax));
+            }
+        }
+        return buttons.get(Button.RT.name()).value;
+    }
+
+    /**
+     * Reads x stick the way {@link Controller#getJoystick(Joystick)} used to, into x new vector.
+     *
+     * @param stick the stick to read
+     * @return the stick's value in (X,Y)
+     */
+    private Vec2D<Float> readJoystick(Joystick stick) {
+        if (stick == Joystick.RIGHT)
+            return new Vec2D<>(gamepad.right_stick_x, gamepad.right_stick_y);
+        return new Vec2D<>(gamepad.left_stick_x, gamepad.left_stick_y);
+    }
+}
@@ -26,8 +26,13 @@ package org.vinesrobotics.bot.opmodes;
 import org.opencv.core.Point;
 import org.opencv.core.Scalar;
 import org.vinesrobotics.bot.utils.Range;
+import org.vinesrobotics.bot.utils.opencv.BlobResult;
+import org.vinesrobotics.bot.utils.opencv.BlobSource;
 import org.vinesrobotics.bot.utils.opencv.ColorBlobDetector;
+import org.vinesrobotics.bot.utils.opencv.ColorClassifier;
+import org.vinesrobotics.bot.utils.opencv.Nv21Vision;
 import org.vinesrobotics.bot.utils.opencv.OpenCvManager;
+import org.vinesrobotics.bot.utils.opencv.VisionWorker;
 
 /**
  * Created by ViBots on 11/30/2017.
@@ -39,10 +44,13 @@ public class VibotAutonomous extends VibotControlled {
         RedBack, BlueBack, RedFront, BlueFront, None
     }
 
-    private OpenCvManager cvmanager = new OpenCvManager();
-    private ColorBlobDetector redBlobDet = new ColorBlobDetector();
-    private ColorBlobDetector redDarkBlobDet = new ColorBlobDetector();
-    private ColorBlobDetector blueBlobDet = new ColorBlobDetector();
+    // null if the OpenCV native library didn't load
+    private OpenCvManager cvmanager = null;
+    // finds the blobs instead when OpenCV didn't load; null if it did
+    private Nv21Vision fallbackVision = null;
+    private BlobSource redBlobDet;
+    private BlobSource redDarkBlobDet;
+    private BlobSource blueBlobDet;
 
     private AutoPosition Position = AutoPosition.None;
 
@@ -52,6 +60,8 @@ public class VibotAutonomous extends VibotControlled {
 
     @Override
     public void init_spec() {
+        recordInput = false;
+        useWriteBehind = false;
         clawServos.setPosition(clawServoMax);
         jewelArmServos.setPosition(1);
         /*switch (Position) {
@@ -74,16 +84,43 @@ public class VibotAutonomous extends VibotControlled {
             break;
         }*/
 
-        cvmanager.initCV();
-        redBlobDet.setColorRadius(new Scalar(25,96, 127));
-        redBlobDet.setHsvColor(new Scalar(255,255,255));
-        redDarkBlobDet.setColorRadius(new Scalar(25,96, 127));
-        redDarkBlobDet.setHsvColor(new Scalar(0,255,255));
-        blueBlobDet.setColorRadius(new Scalar(15 ,96, 127));
-        blueBlobDet.setHsvColor(new Scalar(150, 255, 255));
-        cvmanager.registerBlobDetector(redDarkBlobDet);
-        cvmanager.registerBlobDetector(redBlobDet);
-        cvmanager.registerBlobDetector(blueBlobDet);
+        Scalar redRadius = new Scalar(25,96, 127);
+        Scalar red = new Scalar(255,255,255);
+        Scalar redDark = new Scalar(0,255,255);
+        Scalar blueRadius = new Scalar(15 ,96, 127);
+        Scalar blue = new Scalar(150, 255, 255);
+
+        if (OpenCvManager.isNativeLoaded()) {
+            cvmanager = new OpenCvManager();
+            cvmanager.initCV();
+            ColorBlobDetector redDet = new ColorBlobDetector();
+            ColorBlobDetector redDarkDet = new ColorBlobDetector();
+            ColorBlobDetector blueDet = new ColorBlobDetector();
+            redDet.setColorRadius(redRadius);
+            redDet.setHsvColor(red);
+            redDarkDet.setColorRadius(redRadius);
+            redDarkDet.setHsvColor(redDark);
+            blueDet.setColorRadius(blueRadius);
+            blueDet.setHsvColor(blue);
+
+            // labels each frame for all three detectors in one pass
+            ColorClassifier colorClassifier = new ColorClassifier();
+            colorClassifier.addClass(redDarkDet);
+            colorClassifier.addClass(redDet);
+            colorClassifier.addClass(blueDet);
+            cvmanager.registerClassifier(colorClassifier);
+            // The classifier labels the camera's YUV directly, skipping the RGBA and HSV conversions
+            cvmanager.setNv21Input(true);
+            redBlobDet = redDet;
+            redDarkBlobDet = redDarkDet;
+            blueBlobDet = blueDet;
+        } else {
+            fallbackVision = new Nv21Vision();
+            redDarkBlobDet = fallbackVision.addClass(redDark, redRadius);
+            redBlobDet = fallbackVision.addClass(red, redRadius);
+            blueBlobDet = fallbackVision.addClass(blue, blueRadius);
+            fallbackVision.start();
+        }
 
         /*
        VuforiaManager.init();
@@ -131,17 +168,22 @@ public class VibotAutonomous extends VibotControlled {
 
                 if (realTurnDir == 0) {
 
+                    // Each result is read once, as the vision thread may replace it at any time
+                    BlobResult red = redBlobDet.getResult();
+                    BlobResult redDark = redDarkBlobDet.getResult();
+                    BlobResult blue = blueBlobDet.getResult();
+
                     double redx = Double.NaN;
-                    if (redBlobDet.centerOfAll != null)
-                        redx = redBlobDet.centerOfAll.x;
+                    if (red != null)
+                        redx = red.getCenter().x;
                     double redx2 = Double.NaN;
-                    if (redDarkBlobDet.centerOfAll != null)
-                        redx2 = redDarkBlobDet.centerOfAll.x;
+                    if (redDark != null)
+                        redx2 = redDark.getCenter().x;
                     double blux = Double.NaN;
-                    if (blueBlobDet.centerOfAll != null)
-                        redx2 = blueBlobDet.centerOfAll.x;
+                    if (blue != null)
+                        blux = blue.getCenter().x;
 
-                    if (redx == Double.NaN) redx = redx2;
+                    if (Double.isNaN(redx)) redx = redx2;
 
                     double wrongcol = Double.NaN;
                     double rightcol = Double.NaN;
@@ -161,7 +203,7 @@ public class VibotAutonomous extends VibotControlled {
 
                     int split = 300;
 
-                    if (wrongcol == Double.NaN && rightcol == Double.NaN) {
+                    if (Double.isNaN(wrongcol) && Double.isNaN(rightcol)) {
                         turnDir = 0; // Ensure nothing is done
                     }
                     else
@@ -278,22 +320,40 @@ public class VibotAutonomous extends VibotControlled {
         }
 
         int calcPos = (int)Math.round(slidePosition * linSlideUnitMultiplier);
-        if (linSlide.getPower() != 1) linSlide.setPower(1);
-        if (linSlide.getTargetPosition() != calcPos) linSlide.setTargetPosition(calcPos);
+        linSlide.setPower(1);
+        linSlide.setTargetPosition(calcPos);
 
         telemetry.addLine("Blob centers");
-        Point redP = redBlobDet.centerOfAll.x == Double.NaN ?
-                redDarkBlobDet.centerOfAll : redBlobDet.centerOfAll;
+        BlobResult red = redBlobDet.getResult();
+        BlobResult redDark = redDarkBlobDet.getResult();
+        BlobResult blue = blueBlobDet.getResult();
+        Point redP = (red == null || Double.isNaN(red.getCenter().x)) ?
+                (redDark == null ? null : redDark.getCenter()) : red.getCenter();
         if (redP != null)
             telemetry.addData("  Center of all reds", redP);
-        if (blueBlobDet.centerOfAll != null)
-            telemetry.addData("  Center of all blues", blueBlobDet.centerOfAll);
+        if (blue != null)
+            telemetry.addData("  Center of all blues", blue.getCenter());
+        if (cvmanager != null) {
+            VisionWorker vision = cvmanager.getWorker();
+            telemetry.addData("visionProcessed", vision.getProcessed());
+            telemetry.addData("visionDropped", vision.getDropped());
+            telemetry.addData("visionFailed", vision.getFailed());
+            telemetry.addData("visionMillis", vision.getLastProcessTime() * 1000);
+        } else {
+            telemetry.addData("visionFallback", true);
+            telemetry.addData("visionProcessed", fallbackVision.getProcessed());
+            telemetry.addData("visionFailed", fallbackVision.getFailed());
+            telemetry.addData("visionMillis", fallbackVision.getLastProcessTime() * 1000);
+        }
 
     }
 
     @Override
     public void stop() {
-        cvmanager.stopCV();
+        if (cvmanager != null)
+            cvmanager.stopCV();
+        if (fallbackVision != null)
+            fallbackVision.stop();
     }
 
 }
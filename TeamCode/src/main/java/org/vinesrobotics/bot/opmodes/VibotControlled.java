@@ -22,6 +22,8 @@
 
 package org.vinesrobotics.bot.opmodes;
 
+import android.os.Environment;
+
 import com.qualcomm.robotcore.eventloop.opmode.OpMode;
 import com.qualcomm.robotcore.eventloop.opmode.TeleOp;
 import com.qualcomm.robotcore.hardware.DcMotor;
@@ -29,22 +31,25 @@ import com.qualcomm.robotcore.hardware.Servo;
 import com.qualcomm.robotcore.hardware.configuration.MotorConfigurationType;
 
 import org.vinesrobotics.bot.hardware.Hardware;
-import org.vinesrobotics.bot.hardware.HardwareElement;
 import org.vinesrobotics.bot.hardware.controllers.Controller;
 import org.vinesrobotics.bot.hardware.controllers.ControllerState;
 import org.vinesrobotics.bot.hardware.controllers.Controllers;
+import org.vinesrobotics.bot.hardware.controllers.InputDispatcher;
 import org.vinesrobotics.bot.hardware.controllers.enums.Button;
 import org.vinesrobotics.bot.hardware.controllers.enums.Joystick;
 import org.vinesrobotics.bot.hardware.groups.MotorDeviceGroup;
 import org.vinesrobotics.bot.hardware.groups.ServoDeviceGroup;
+import org.vinesrobotics.bot.hardware.groups.WriteBehind;
+import org.vinesrobotics.bot.utils.Axis;
 import org.vinesrobotics.bot.utils.Logging;
 import org.vinesrobotics.bot.utils.Utils;
-import org.vinesrobotics.bot.utils.Vec2D;
 
 import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
 import java.io.PrintStream;
 import java.security.InvalidKeyException;
-import java.util.List;
+import java.util.Date;
 
 
 @TeleOp(name="Controlled (17)", group="Vines")
@@ -105,30 +110,23 @@ public class VibotControlled extends OpMode {
         } catch (InvalidKeyException e) {}
         robot.initHardware(hardwareMap);
 
-        List<HardwareElement> lefts = robot.getDevicesWithAllKeys("left","drive");
         leftMotors = new MotorDeviceGroup();
         try {
-            for (HardwareElement he : lefts) {
-                leftMotors.addDevice((DcMotor) he.get());
-            }
+            leftMotors.setDevices(robot.devices(DcMotor.class, "left","drive"));
             leftMotors.setDirection(DcMotor.Direction.FORWARD);
             leftMotors.setMode(DcMotor.RunMode.RUN_WITHOUT_ENCODER);
         }catch (Exception e){}
 
-        List<HardwareElement> right = robot.getDevicesWithAllKeys("right","drive");
         rightMotors = new MotorDeviceGroup();
         try {
-            for (HardwareElement he : right) {
-                rightMotors.addDevice((DcMotor)he.get());
-            }
+            rightMotors.setDevices(robot.devices(DcMotor.class, "right","drive"));
             rightMotors.setDirection(DcMotor.Direction.REVERSE);
             rightMotors.setMode(DcMotor.RunMode.RUN_WITHOUT_ENCODER);
         }catch (Exception e){}
 
-        List<HardwareElement> slides = robot.getDevicesWithAllKeys("motor", "slide");
         linSlide = new MotorDeviceGroup();
         try {
-            linSlide.addDevice((DcMotor) slides.get(0).get());
+            linSlide.addDevice(robot.device(DcMotor.class, "motor", "slide"));
             linSlide.setZeroPowerBehavior(DcMotor.ZeroPowerBehavior.BRAKE);
             linSlide.setMode(DcMotor.RunMode.RUN_TO_POSITION);
             linSlide.setContainsOne(); // required to properly get the motor type
@@ -138,10 +136,9 @@ public class VibotControlled extends OpMode {
         }catch (Exception e){}
 
         /*
-        List<HardwareElement> relic = robot.getDevicesWithAllKeys("motor", "relic", "arm");
         relicArm = new MotorDeviceGroup();
         try {
-            relicArm.addDevice((DcMotor) relic.get(0).get());
+            relicArm.addDevice(robot.device(DcMotor.class, "motor", "relic", "arm"));
             relicArm.setZeroPowerBehavior(DcMotor.ZeroPowerBehavior.BRAKE);
             relicArm.setMode(DcMotor.RunMode.RUN_TO_POSITION);
             relicArm.setContainsOne(); // required to properly get the motor type
@@ -149,50 +146,37 @@ public class VibotControlled extends OpMode {
             relicArmUnitMultiplier = relicArmCfg.getTicksPerRev();
         }catch (Exception e){}
 
-        List<HardwareElement> wrist = robot.getDevicesWithAllKeys("servo","relic", "wrist");
         relicArmWrist = new ServoDeviceGroup();
         try {
-            for (HardwareElement he : wrist) {
-                Servo serv = (Servo)he.get();
-                relicArmWrist.addDevice(serv);
-            }
+            relicArmWrist.setDevices(robot.devices(Servo.class, "servo","relic", "wrist"));
         }catch (Exception e){}
 
-        List<HardwareElement> rclaw = robot.getDevicesWithAllKeys("servo","relic", "hand");
         relicArmClaw = new ServoDeviceGroup();
         try {
-            for (HardwareElement he : rclaw) {
-                Servo serv = (Servo)he.get();
-                relicArmClaw.addDevice(serv);
-            }
+            relicArmClaw.setDevices(robot.devices(Servo.class, "servo","relic", "hand"));
         }catch (Exception e){}
         */
 
-        List<HardwareElement> claw = robot.getDevicesWithAllKeys("claw","servo");
         clawServos = new ServoDeviceGroup();
         try {
-            for (HardwareElement he : claw) {
-                Servo serv = (Servo)he.get();
-                clawServos.addDevice(serv);
-                if (robot.hasKey(he, "right")) {
-                    serv.setDirection(Servo.Direction.REVERSE);
-                }
+            clawServos.setDevices(robot.devices(Servo.class, "claw","servo"));
+            for (Servo serv : robot.devices(Servo.class, "claw","servo","right")) {
+                // no right claw servo mapped; don't reverse the shared stand-in
+                if (Hardware.isNullDevice(serv)) continue;
+                serv.setDirection(Servo.Direction.REVERSE);
             }
         }catch (Exception e){}
 
-        List<HardwareElement> jarm = robot.getDevicesWithAllKeys("jewel","arm","servo");
         jewelArmServos = new ServoDeviceGroup();
         try {
-            for (HardwareElement he : jarm) {
-                Servo serv = (Servo)he.get();
-                jewelArmServos.addDevice(serv);
-            }
+            jewelArmServos.setDevices(robot.devices(Servo.class, "jewel","arm","servo"));
         }catch (Exception e){}
 
         // old init_m
-        controllers = Controllers.getControllerObjects(this);
+        controllers = createControllers();
         main_ct = controllers.a();
         sub_ct = controllers.b();
+        initInput();
 
         //Vuforia.init();
         init_spec();
@@ -202,6 +186,86 @@ public class VibotControlled extends OpMode {
 
     }
 
+    /**
+     * Creates the controllers the OpMode reads. If {@link #replayInput} is set, they play back that
+     * recording from {@link #RECORDING_DIR} instead of reading the gamepads. Subclasses and test
+     * harnesses can override this to supply their own.
+     *
+     * @return the controllers
+     */
+    protected Controllers createControllers() {
+        if (replayInput != null) {
+            File dir = new File(Environment.getExternalStorageDirectory(), RECORDING_DIR);
+            try {
+                return Controllers.replay(new File(dir, replayInput + "_gamepad1.vinp"),
+                        new File(dir, replayInput + "_gamepad2.vinp"));
+            } catch (IOException e) {
+                // drive with the gamepads rather than not at all
+                e.printStackTrace();
+            }
+        }
+        return Controllers.getControllerObjects(this);
+    }
+
+    /**
+     * Registers the debug and configuration toggles on the main controller.
+     */
+    protected void initInput() {
+        mainInput = new InputDispatcher(main_ct);
+
+        // LB+RB toggles debugging; only the button that lands second toggles
+        InputDispatcher.ButtonListener toggleDebug = new InputDispatcher.ButtonListener() {
+            @Override
+            public void onButton(Button button, ControllerState state) {
+                if (state.isPressed(Button.LB) && state.isPressed(Button.RB)
+                        && (button == Button.LB || state.last().isPressed(Button.LB)))
+                    debugMode =! debugMode;
+            }
+        };
+        mainInput.onPress(Button.LB, toggleDebug);
+        mainInput.onPress(Button.RB, toggleDebug);
+
+        mainInput.onPress(Button.X, new InputDispatcher.ButtonListener() {
+            @Override
+            public void onButton(Button button, ControllerState state) {
+                if (debugMode) configureMode =! configureMode;
+            }
+        });
+
+        // UP/DN change realSlideMin, L/R change realSlideMax
+        InputDispatcher.ButtonListener configure = new InputDispatcher.ButtonListener() {
+            @Override
+            public void onButton(Button button, ControllerState state) {
+                if (!debugMode || !configureMode) return;
+
+                double increment = .05;
+
+                switch (button) {
+                    case UP:
+                        mainLinSlideMin += increment;
+                        linSlideMin += increment;
+                        break;
+                    case DOWN:
+                        mainLinSlideMin -= increment;
+                        linSlideMin -= increment;
+                        break;
+                    case RIGHT:
+                        mainLinSlideMax += increment;
+                        linSlideMax += increment;
+                        break;
+                    case LEFT:
+                        mainLinSlideMax -= increment;
+                        linSlideMax -= increment;
+                        break;
+                }
+            }
+        };
+        mainInput.onPress(Button.UP, configure);
+        mainInput.onPress(Button.DOWN, configure);
+        mainInput.onPress(Button.LEFT, configure);
+        mainInput.onPress(Button.RIGHT, configure);
+    }
+
     public void init_loop() {
         /*init_loop_m();*/
     }
@@ -211,6 +275,29 @@ public class VibotControlled extends OpMode {
         /*start_m();*/
         if (died) return;
 
+        if (recordInput) {
+            // record both gamepads so the run can be replayed with Controllers.replay
+            File dir = new File(Environment.getExternalStorageDirectory(), RECORDING_DIR);
+            String prefix = getClass().getSimpleName() + "_" + new Date().getTime();
+            try {
+                if (!dir.isDirectory() && !dir.mkdirs())
+                    throw new IOException("Could not create " + dir);
+                controllers.startRecording(new File(dir, prefix + "_gamepad1.vinp"), new File(dir, prefix + "_gamepad2.vinp"));
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        if (useWriteBehind) {
+            // the loop posts power and position, and the write thread puts them on the bus
+            leftMotors.setWriteBehind(writeBehind);
+            rightMotors.setWriteBehind(writeBehind);
+            linSlide.setWriteBehind(writeBehind);
+            clawServos.setWriteBehind(writeBehind);
+            jewelArmServos.setWriteBehind(writeBehind);
+            writeBehind.start();
+        }
+
         Utils.getDeltaTime(this.getRuntime());
     }
 
@@ -233,6 +320,8 @@ public class VibotControlled extends OpMode {
                 if (died) return;
                 double delta = Utils.getDeltaTime(this.getRuntime());
                 ctime += delta;
+                // snapshots from the last loop are stale now
+                MotorDeviceGroup.beginCycle();
                 loop_m(delta);
             } catch (Exception e) {
                 error = e;
@@ -243,14 +332,32 @@ public class VibotControlled extends OpMode {
     @Override
     public void stop() {
         //Vuforia.deinit();
+        writeBehind.stop();
+        try {
+            controllers.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
     }
 
     private boolean died = false;
 
     protected Controllers controllers;
     protected Controller main_ct;
+    protected InputDispatcher mainInput;
     protected Controller sub_ct;
 
+    // directory under external storage that input recordings go in
+    protected static final String RECORDING_DIR = "vinp";
+    // off by default; each run writes two logs that are never cleaned up, and
+    // the writes happen on the loop thread whenever the record buffer fills
+    protected boolean recordInput = false;
+    // the prefix of x recording in RECORDING_DIR to play back instead of the gamepads, such as
+    // "VibotControlled_1514764800000"; null to read the gamepads
+    protected String replayInput = null;
+    // off until it has been proven on the robot
+    protected boolean useWriteBehind = false;
+    protected WriteBehind writeBehind = new WriteBehind();
     protected boolean debugMode = false;
     protected boolean configureMode = false;
 
@@ -263,28 +370,23 @@ public class VibotControlled extends OpMode {
     /*protected double relicPosition = relicArmMin;
     protected double relicWristPosition = 0;
     protected double relicClawPosition = 0;*/
-    private boolean lastToggleDebug = false;
-    private boolean lastToggleConfig = false;
     public void loop_m(double deltaTime) {
-        ControllerState mains = this.main_ct.getControllerState();
+        ControllerState mains = this.mainInput.poll();
         ControllerState subs = this.sub_ct.getControllerState();
 
-        Vec2D<Double> left = mains.joy(Joystick.LEFT);
-        Vec2D<Double> right = mains.joy(Joystick.RIGHT);
-
-        double lPower = left.y(),rPower = right.y();
+        double lPower = mains.joyVal(Joystick.LEFT, Axis.Y),rPower = mains.joyVal(Joystick.RIGHT, Axis.Y);
 
         leftMotors.setPower(lPower);
         rightMotors.setPower(rPower);
 
         double slidePower = 1; // power
-        if (linSlide.getPower()!=slidePower) linSlide.setPower(slidePower);
+        linSlide.setPower(slidePower);
         if (subs.isPressed(Button.UP)) slidePosition += linSlideSpeed * deltaTime;
         if (subs.isPressed(Button.DOWN)) slidePosition -= linSlideSpeed * deltaTime;
         if (slidePosition > linSlideMax) slidePosition = linSlideMax;
         if (slidePosition < linSlideMin) slidePosition = linSlideMin;
         int calcPos = (int)Math.round(slidePosition * linSlideUnitMultiplier);
-        if (linSlide.getTargetPosition() != calcPos) linSlide.setTargetPosition(calcPos);
+        linSlide.setTargetPosition(calcPos);
 
         // literal copy of Shields' code; there's a better way to do this
         double servo_speed = .8;
@@ -297,12 +399,12 @@ public class VibotControlled extends OpMode {
 
         /*
         double relicSpeed = 1;
-        if (relicArm.getPower()!=slidePower) relicArm.setPower(slidePower);
+        relicArm.setPower(slidePower);
         relicPosition += sub.joyVal(Joystick.RIGHT, Axis.Y) * relicSpeed * deltaTime;
         if (relicPosition > relicArmMax) relicPosition = relicArmMax;
         if (relicPosition < relicArmMin) relicPosition = relicArmMin;
         calcPos = (int)Math.round(relicPosition * relicArmUnitMultiplier);
-        if (relicArm.getTargetPosition() != calcPos) relicArm.setTargetPosition(calcPos);
+        relicArm.setTargetPosition(calcPos);
 
         double wristSpeed = 1;
         relicWristPosition += sub.joyVal(Joystick.LEFT, Axis.Y) * wristSpeed * deltaTime;
@@ -323,11 +425,6 @@ public class VibotControlled extends OpMode {
         telemetry.addData("Speed", (-lPower-rPower)/2 );
         telemetry.addData("Turning Speed", (-lPower+rPower)/2 );
 
-        //boolean lastToggle = main.last().isPressed(Button.LB) && main.last().isPressed(Button.RB);
-        boolean toggleDebug = mains.isPressed(Button.LB) && mains.isPressed(Button.RB);
-
-        if (toggleDebug && !lastToggleDebug) debugMode =! debugMode;
-        lastToggleDebug = toggleDebug;
         if (debugMode) {
             telemetry.addLine();
             telemetry.addLine("Debugging");
@@ -335,12 +432,21 @@ public class VibotControlled extends OpMode {
             telemetry.addData("clawPosition", clawPosition);
             telemetry.addData("servoSpeed", servo_speed);
             telemetry.addData("slidePosition", slidePosition);
+            linSlide.snapshot();
+            telemetry.addData("slideActual", linSlide.getCurrentPosition() / linSlideUnitMultiplier);
+            telemetry.addData("slideBusy", linSlide.isAnyBusy());
             telemetry.addData("slideMin", linSlideMin);
             telemetry.addData("slideMax", linSlideMax);
+            telemetry.addData("driveWrites", (leftMotors.getIssuedWrites() + rightMotors.getIssuedWrites())
+                    + " sent, " + (leftMotors.getSuppressedWrites() + rightMotors.getSuppressedWrites()) + " skipped");
+            telemetry.addData("slideWrites", linSlide.getIssuedWrites() + " sent, " + linSlide.getSuppressedWrites() + " skipped");
+            if (useWriteBehind) {
+                telemetry.addData("writeLatency", String.format("%.2fms mean, %.2fms max",
+                        writeBehind.getMeanLatencyMillis(), writeBehind.getMaxLatencyMillis()));
+                telemetry.addData("writeCommands", writeBehind.getFlushedCommands() + " written, "
+                        + writeBehind.getDroppedCommands() + " dropped");
+            }
 
-            boolean toggleConfigure = mains.isPressed(Button.X);
-            if (toggleConfigure && !lastToggleConfig) configureMode =! configureMode;
-            lastToggleConfig = toggleConfigure;
             if (configureMode) {
                 telemetry.addLine();
                 telemetry.addLine("Configuring");
@@ -350,41 +456,12 @@ public class VibotControlled extends OpMode {
                 telemetry.addLine("L/R to change realSlideMax");
                 telemetry.addData("realSlideMin", mainLinSlideMin);
                 telemetry.addData("realSlideMax", mainLinSlideMax);
-
-                boolean up = mains.isPressed(Button.UP);
-                boolean dn = mains.isPressed(Button.DOWN);
-                boolean l = mains.isPressed(Button.LEFT);
-                boolean r = mains.isPressed(Button.RIGHT);
-
-                double increment = .05;
-
-                if (up && ! lastPressedUp) {
-                    mainLinSlideMin += increment;
-                    linSlideMin += increment;
-                }
-                if (dn && ! lastPressedDn) {
-                    mainLinSlideMin -= increment;
-                    linSlideMin -= increment;
-                }
-                if (r && ! lastPressedR) {
-                    mainLinSlideMax += increment;
-                    linSlideMax += increment;
-                }
-                if (l && ! lastPressedL) {
-                    mainLinSlideMax -= increment;
-                    linSlideMax -= increment;
-                }
-
-                lastPressedUp = up;
-                lastPressedDn = dn;
-                lastPressedL = l;
-                lastPressedR = r;
             }
         }
+        if (useWriteBehind && writeBehind.hasFailed()) {
+            // the groups are writing directly again
+            telemetry.addData("writeBehindFailed", writeBehind.getFailure());
+        }
         updateTelemetry(telemetry);
     }
-    boolean lastPressedUp = false;
-    boolean lastPressedDn = false;
-    boolean lastPressedL = false;
-    boolean lastPressedR = false;
 }
\ No newline at end of file
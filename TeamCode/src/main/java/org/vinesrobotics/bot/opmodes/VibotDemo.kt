@@ -75,23 +75,20 @@ class VibotDemo : OpMode() {
         } catch (e: InvalidKeyException) {}
         robot.initHardware(hardwareMap)
 
-        var lDriveOpts = robot.getDevicesWithAllKeys<DcMotor>("left","drive")
         try {
-            for (opt in lDriveOpts) leftDrive.addDevice(opt.get() as DcMotor)
+            leftDrive.setDevices(robot.devices(DcMotor::class.java, "left","drive"))
             leftDrive.direction = DcMotorSimple.Direction.FORWARD
             leftDrive.mode = DcMotor.RunMode.RUN_WITHOUT_ENCODER
         } catch (e: Exception) {}
 
-        var rDriveOpts = robot.getDevicesWithAllKeys<DcMotor>("right","drive")
         try {
-            for (opt in rDriveOpts) rightDrive.addDevice(opt.get() as DcMotor)
+            rightDrive.setDevices(robot.devices(DcMotor::class.java, "right","drive"))
             rightDrive.direction = DcMotorSimple.Direction.REVERSE
             rightDrive.mode = DcMotor.RunMode.RUN_WITHOUT_ENCODER
         } catch (e: Exception) {}
 
-        var flagOpts = robot.getDevicesWithAllKeys<Servo>("servo","flag")
         try {
-            for (opt in flagOpts) flagServo.addDevice(opt.get() as Servo)
+            flagServo.setDevices(robot.devices(Servo::class.java, "servo","flag"))
             flagServo.direction = Servo.Direction.FORWARD
         } catch (e: Exception) {}
 
@@ -0,0 +1,273 @@
+/*
+ * Copyright (c) 2018 Vines High School Robotics Team
+ *
+ *                            Permission is hereby granted, free of charge, to any person obtaining a copy
+ *                            of this software and associated documentation files (the "Software"), to deal
+ *                            in the Software without restriction, including without limitation the rights
+ *                            to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *                            copies of the Software, and to permit persons to whom the Software is
+ *                            furnished to do so, subject to the following conditions:
+ *
+ *                            The above copyright notice and this permission notice shall be included in all
+ *                            copies or substantial portions of the Software.
+ *
+ *                            THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *                            IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *                            FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *                            AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *                            LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *                            OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *                            SOFTWARE.
+ */
+
+package org.vinesrobotics.bot.opmodes;
+
+import android.os.Build;
+import android.os.Debug;
+
+import com.qualcomm.robotcore.eventloop.opmode.OpMode;
+import com.qualcomm.robotcore.eventloop.opmode.TeleOp;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Scalar;
+import org.opencv.imgproc.Imgproc;
+import org.vinesrobotics.bot.utils.Logging;
+import org.vinesrobotics.bot.utils.opencv.ColorBlobDetector;
+import org.vinesrobotics.bot.utils.opencv.ColorClassifier;
+import org.vinesrobotics.bot.utils.opencv.FramePreprocessor;
+
+/**
+ * Measures the frame rate of the blob detectors set up as in {@link VibotAutonomous}, on x
+ * synthetic camera frame, along with the Java objects and bytes they allocate per frame and how
+ * many times the garbage collector ran during the timed frames. Allocations are counted per
+ * object on this thread with {@link Debug#getThreadAllocCount()}, not read off the heap size,
+ * which moves in allocation buffer chunks and drops whenever any thread's collection runs.
+ * <p>
+ * {@link ColorBlobDetector.Mode#CONTOURS} still allocates x MatOfPoint for every contour
+ * findContours returns. {@link ColorBlobDetector.Mode#COMPONENTS} (X button) doesn't call
+ * findContours, so it leaves only each detector's {@link org.vinesrobotics.bot.utils.opencv.BlobResult}
+ * per frame; that is the path to compare against for no GC pauses.
+ * <p>
+ * Each frame is timed from NV21, as the camera gives it, so the RGBA conversion the camera view
+ * does is counted against the RGBA paths.
+ */
+@TeleOp(name="VisionBenchmark",group="Vines")
+public class VisionBenchmark extends OpMode {
+    static {
+        System.loadLibrary("opencv_java3");
+    }
+
+    // frames timed per loop
+    private static final int FRAMES = 5;
+    // frame size, as the camera delivers it
+    private static final int WIDTH = 640;
+    private static final int HEIGHT = 480;
+
+    private Mat frame;
+    // the same frame in NV21, and converted back to RGBA each timed frame
+    private Mat nv21Frame;
+    private Mat rgbaFrame;
+    private FramePreprocessor preprocessor;
+    private ColorBlobDetector[] detectors;
+    // the same detectors again, run through one classifier
+    private ColorBlobDetector[] classDetectors;
+    private ColorClassifier classifier;
+
+    // running totals
+    private long totalFrames = 0;
+    private long totalNanos = 0;
+    private long worstNanos = 0;
+    private long allocatedObjects = 0;
+    private long allocatedBytes = 0;
+    private long collections = 0;
+
+    // whether the detectors track their last detection, and the last state of the A button
+    private boolean adaptive = false;
+    private boolean lastA = false;
+    // whether the classifier is timed instead of the detectors, and the last state of the B button
+    private boolean useClassifier = false;
+    private boolean lastB = false;
+    // how the detectors find blobs, and the last state of the X button
+    private ColorBlobDetector.Mode mode = ColorBlobDetector.Mode.CONTOURS;
+    private boolean lastX = false;
+    // whether the classifier labels the frame in YUV, and the last state of the Y button
+    private boolean yuvInput = false;
+    private boolean lastY = false;
+
+    public void init(){
+        Logging.setTelemetry(telemetry);
+        // The thread allocation counters stay at zero unless counting is on
+        Debug.resetAllCounts();
+        Debug.startAllocCounting();
+
+        // A dark frame with x few red and blue blobs on it
+        frame = new Mat(HEIGHT, WIDTH, CvType.CV_8UC4, new Scalar(20, 20, 20, 255));
+        Scalar red = new Scalar(220, 30, 30, 255);
+        Scalar blue = new Scalar(30, 140, 220, 255);
+        for (int i = 0; i < 4; i++) {
+            Imgproc.rectangle(frame, new Point(40 + i * 150, 60), new Point(110 + i * 150, 140), red, -1);
+            Imgproc.rectangle(frame, new Point(40 + i * 150, 300), new Point(110 + i * 150, 380), blue, -1);
+        }
+
+        nv21Frame = toNv21(frame);
+        rgbaFrame = new Mat();
+
+        preprocessor = new FramePreprocessor();
+        detectors = createDetectors();
+        classDetectors = createDetectors();
+        classifier = new ColorClassifier();
+        for (ColorBlobDetector det : classDetectors) classifier.addClass(det);
+    }
+
+    /**
+     * Converts an RGBA frame to NV21, as the camera would give it.
+     *
+     * @param rgbaImage The frame
+     * @return the NV21 frame, height and a half rows tall
+     */
+    private static Mat toNv21(Mat rgbaImage) {
+        // OpenCV converts to planar I420; NV21 has the same luma, then V and U interleaved
+        Mat i420 = new Mat();
+        Imgproc.cvtColor(rgbaImage, i420, Imgproc.COLOR_RGBA2YUV_I420);
+        byte[] planar = new byte[(int) i420.total()];
+        i420.get(0, 0, planar);
+        i420.release();
+
+        int luma = rgbaImage.rows() * rgbaImage.cols();
+        int quarter = luma / 4;
+        byte[] interleaved = new byte[planar.length];
+        System.arraycopy(planar, 0, interleaved, 0, luma);
+        for (int i = 0; i < quarter; i++) {
+            interleaved[luma + i * 2] = planar[luma + quarter + i];
+            interleaved[luma + i * 2 + 1] = planar[luma + i];
+        }
+        Mat nv21 = new Mat(rgbaImage.rows() * 3 / 2, rgbaImage.cols(), CvType.CV_8UC1);
+        nv21.put(0, 0, interleaved);
+        return nv21;
+    }
+
+    /**
+     * Creates the red, dark red and blue detectors.
+     *
+     * @return the detectors
+     */
+    private static ColorBlobDetector[] createDetectors() {
+        ColorBlobDetector[] dets = {
+                new ColorBlobDetector(), new ColorBlobDetector(), new ColorBlobDetector()
+        };
+        dets[0].setColorRadius(new Scalar(25,96, 127));
+        dets[0].setHsvColor(new Scalar(255,255,255));
+        dets[1].setColorRadius(new Scalar(25,96, 127));
+        dets[1].setHsvColor(new Scalar(0,255,255));
+        dets[2].setColorRadius(new Scalar(15 ,96, 127));
+        dets[2].setHsvColor(new Scalar(150, 255, 255));
+        return dets;
+    }
+
+    public void loop(){
+        // A toggles adaptive search and restarts the totals, to compare the two
+        if (gamepad1.a != lastA && gamepad1.a) {
+            adaptive = !adaptive;
+            for (ColorBlobDetector det : detectors) det.setAdaptiveRoi(adaptive);
+            for (ColorBlobDetector det : classDetectors) det.setAdaptiveRoi(adaptive);
+            totalFrames = totalNanos = worstNanos = allocatedObjects = allocatedBytes = collections = 0;
+        }
+        lastA = gamepad1.a;
+        // B switches between separate detectors and the classifier, and restarts the totals
+        if (gamepad1.b != lastB && gamepad1.b) {
+            useClassifier = !useClassifier;
+            totalFrames = totalNanos = worstNanos = allocatedObjects = allocatedBytes = collections = 0;
+        }
+        lastB = gamepad1.b;
+        // X switches between contours and connected components, and restarts the totals
+        if (gamepad1.x != lastX && gamepad1.x) {
+            mode = mode == ColorBlobDetector.Mode.CONTOURS
+                    ? ColorBlobDetector.Mode.COMPONENTS : ColorBlobDetector.Mode.CONTOURS;
+            for (ColorBlobDetector det : detectors) det.setMode(mode);
+            for (ColorBlobDetector det : classDetectors) det.setMode(mode);
+            totalFrames = totalNanos = worstNanos = allocatedObjects = allocatedBytes = collections = 0;
+        }
+        lastX = gamepad1.x;
+        // Y switches the classifier between RGBA and YUV input, and restarts the totals
+        if (gamepad1.y != lastY && gamepad1.y) {
+            yuvInput = !yuvInput;
+            totalFrames = totalNanos = worstNanos = allocatedObjects = allocatedBytes = collections = 0;
+        }
+        lastY = gamepad1.y;
+        boolean yuv = yuvInput && useClassifier;
+        ColorBlobDetector[] active = useClassifier ? classDetectors : detectors;
+
+        for (int i = 0; i < FRAMES; i++) {
+            int objectsBefore = Debug.getThreadAllocCount();
+            int bytesBefore = Debug.getThreadAllocSize();
+            long gcsBefore = gcCount();
+            long start = System.nanoTime();
+
+            if (yuv) {
+                Mat luma = preprocessor.processNv21(nv21Frame);
+                classifier.detectNv21(luma, preprocessor.getChroma(), start);
+            } else {
+                Imgproc.cvtColor(nv21Frame, rgbaFrame, Imgproc.COLOR_YUV2RGBA_NV21, 4);
+                Mat hsv = preprocessor.process(rgbaFrame);
+                if (useClassifier) {
+                    classifier.detect(hsv, start);
+                } else {
+                    for (ColorBlobDetector det : detectors)
+                        det.detect(hsv, start);
+                }
+            }
+
+            long took = System.nanoTime() - start;
+            allocatedObjects += Debug.getThreadAllocCount() - objectsBefore;
+            allocatedBytes += Debug.getThreadAllocSize() - bytesBefore;
+            collections += gcCount() - gcsBefore;
+
+            totalNanos += took;
+            if (took > worstNanos) worstNanos = took;
+        }
+        totalFrames += FRAMES;
+
+        telemetry.addData("Adaptive ROI", adaptive);
+        telemetry.addData("Classifier", useClassifier);
+        telemetry.addData("YUV input", yuv);
+        telemetry.addData("Mode", mode);
+        telemetry.addData("Frames", totalFrames);
+        telemetry.addData("Mean ms/frame", totalNanos / 1e6 / totalFrames);
+        telemetry.addData("Worst ms/frame", worstNanos / 1e6);
+        telemetry.addData("FPS", totalFrames * 1e9 / totalNanos);
+        telemetry.addData("Objects/frame", (double) allocatedObjects / totalFrames);
+        telemetry.addData("Bytes/frame", allocatedBytes / totalFrames);
+        telemetry.addData("GCs during frames", collections);
+        telemetry.addData("Pixels searched", active[0].getLastPixels() + " red, "
+                + active[2].getLastPixels() + " blue");
+        telemetry.addData("Blobs", active[0].getResult().getCount() + " red, "
+                + active[2].getResult().getCount() + " blue");
+        telemetry.update();
+    }
+
+    /**
+     * Gets the number of garbage collections the runtime has run so far.
+     *
+     * @return the count
+     */
+    private static long gcCount() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            String count = Debug.getRuntimeStat("art.gc.gc-count");
+            if (count != null) return Long.parseLong(count);
+        }
+        // Older runtimes only count while allocation counting is on, which init turns on
+        return Debug.getGlobalGcInvocationCount();
+    }
+
+    @Override
+    public void stop() {
+        Debug.stopAllocCounting();
+        frame.release();
+        nv21Frame.release();
+        rgbaFrame.release();
+        preprocessor.release();
+        classifier.release();
+    }
+}
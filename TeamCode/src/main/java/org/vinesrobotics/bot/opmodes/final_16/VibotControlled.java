@@ -31,6 +31,7 @@ import com.qualcomm.robotcore.eventloop.opmode.TeleOp;
 import org.vinesrobotics.bot.hardware.controllers.Controller;
 import org.vinesrobotics.bot.hardware.controllers.ControllerState;
 import org.vinesrobotics.bot.hardware.controllers.Controllers;
+import org.vinesrobotics.bot.hardware.controllers.InputDispatcher;
 import org.vinesrobotics.bot.hardware.controllers.enums.Button;
 import org.vinesrobotics.bot.hardware.controllers.enums.Joystick;
 //import org.vinesrobotics.bot.utils.Utils;
@@ -76,8 +77,20 @@ public class   VibotControlled extends VibotHardwareBase {
         controllers = Controllers.getControllerObjects(this);
         main_ct = controllers.a();
         turret_ct = controllers.b();
-        lastMain = main_ct.getControllerState();
-        lastTurret = turret_ct.getControllerState();
+
+        mainInput = new InputDispatcher(main_ct);
+        mainInput.onPress(Button.UP, new InputDispatcher.ButtonListener() {
+            @Override
+            public void onButton(Button button, ControllerState state) {
+                catapult_debug = !catapult_debug;
+            }
+        });
+        mainInput.onPress(Button.DOWN, new InputDispatcher.ButtonListener() {
+            @Override
+            public void onButton(Button button, ControllerState state) {
+                catapult.toggleManual();
+            }
+        });
     }
 
     /*
@@ -96,8 +109,7 @@ public class   VibotControlled extends VibotHardwareBase {
     }
 
     boolean catapult_debug = false;
-    ControllerState lastMain = null;
-    ControllerState lastTurret = null;
+    InputDispatcher mainInput;
     /*
      * Code to run REPEATEDLY after the driver hits PLAY but before they hit STOP
      */
@@ -105,11 +117,9 @@ public class   VibotControlled extends VibotHardwareBase {
     public void loop_m() {
         if (died) return;
 
-        ControllerState main = this.main_ct.getControllerState();
+        ControllerState main = this.mainInput.poll();
         ControllerState turret = this.turret_ct.getControllerState();
 
-        if (main.isPressed(Button.UP) && !lastMain.isPressed(Button.UP)) catapult_debug = !catapult_debug;
-
         Vec2D<Double> left;
         Vec2D<Double> right;
 
@@ -143,7 +153,6 @@ public class   VibotControlled extends VibotHardwareBase {
         }
 
         if (main.isPressed(Button.A)) catapult.fire();
-        if (main.isPressed(Button.DOWN) && !lastMain.isPressed(Button.DOWN)) catapult.toggleManual();
 
         telemetry.addLine( "Values in range of -1 to +1" );
         telemetry.addData( "Speed", (-left.y()-right.y())/2 );
@@ -151,9 +160,6 @@ public class   VibotControlled extends VibotHardwareBase {
         telemetry.addData( "Intake Speed", itkpw );
         telemetry.addData( "Actual intake speed", itk.getPower() );
         updateTelemetry(telemetry);
-
-        lastMain = main_ct.getControllerState().clone();
-        lastTurret = turret_ct.getControllerState().clone();
     }
 
 
@@ -30,7 +30,6 @@ import com.qualcomm.robotcore.hardware.DcMotor;
 
 import org.vinesrobotics.bot.hardware.robot.final_16.Catapult;
 import org.vinesrobotics.bot.hardware.Hardware;
-import org.vinesrobotics.bot.hardware.HardwareElement;
 import org.vinesrobotics.bot.hardware.groups.MotorDeviceGroup;
 import org.vinesrobotics.bot.utils.Logging;
 import org.vinesrobotics.bot.utils.Utils;
@@ -39,7 +38,6 @@ import java.io.ByteArrayOutputStream;
 import java.io.PrintStream;
 import java.io.UnsupportedEncodingException;
 import java.security.InvalidKeyException;
-import java.util.List;
 
 public abstract class VibotHardwareBase extends OpMode {
 
@@ -69,31 +67,25 @@ public abstract class VibotHardwareBase extends OpMode {
         } catch (InvalidKeyException e) {}
         robot.initHardware(hardwareMap);
 
-        List<HardwareElement> lefts = robot.getDevicesWithAllKeys("left","drive");
         leftMotors = new MotorDeviceGroup();
         try {
-            for (HardwareElement he : lefts) {
-                leftMotors.addDevice((DcMotor) he.get());
-            }
+            leftMotors.setDevices(robot.devices(DcMotor.class, "left","drive"));
             leftMotors.setDirection(DcMotor.Direction.FORWARD);
             leftMotors.setMode(DcMotor.RunMode.RUN_WITHOUT_ENCODER);
         }catch (Exception e){}
 
-        List<HardwareElement> right = robot.getDevicesWithAllKeys("right","drive");
         rightMotors = new MotorDeviceGroup();
         try {
-            for (HardwareElement he : right) {
-                rightMotors.addDevice((DcMotor)he.get());
-            }
+            rightMotors.setDevices(robot.devices(DcMotor.class, "right","drive"));
             rightMotors.setDirection(DcMotor.Direction.REVERSE);
             rightMotors.setMode(DcMotor.RunMode.RUN_WITHOUT_ENCODER);
         }catch (Exception e){}
 
-        itk = robot.getDeviceWithKeys("intake","motor");
+        itk = robot.device(DcMotor.class, "intake","motor");
         itk.setDirection(DcMotor.Direction.REVERSE);
         itk.setMode(DcMotor.RunMode.RUN_WITHOUT_ENCODER);
 
-        catapult = new Catapult((DcMotor) robot.getDeviceWithKeys("catapult","motor"),catapult_pos,catapult_root);
+        catapult = new Catapult(robot.device(DcMotor.class, "catapult","motor"),catapult_pos,catapult_root);
         catapult.catapult().setDirection(DcMotor.Direction.FORWARD);
 
         init_m();
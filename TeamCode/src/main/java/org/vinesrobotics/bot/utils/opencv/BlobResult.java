@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2018 Vines High School Robotics Team
+ *
+ *                            Permission is hereby granted, free of charge, to any person obtaining a copy
+ *                            of this software and associated documentation files (the "Software"), to deal
+ *                            in the Software without restriction, including without limitation the rights
+ *                            to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *                            copies of the Software, and to permit persons to whom the Software is
+ *                            furnished to do so, subject to the following conditions:
+ *
+ *                            The above copyright notice and this permission notice shall be included in all
+ *                            copies or substantial portions of the Software.
+ *
+ *                            THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *                            IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *                            FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *                            AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *                            LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *                            OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *                            SOFTWARE.
+ */
+
+package org.vinesrobotics.bot.utils.opencv;
+
+import org.opencv.core.Point;
+
+import java.util.Arrays;
+
+/**
+ * What x {@link ColorBlobDetector} found in one frame. Never changed once published, so any
+ * thread can read one while the detector works on the next frame. Blobs are kept as primitive
+ * arrays, so x result is only x handful of small objects however many blobs there are.
+ */
+public final class BlobResult {
+    // number of blobs
+    private final int count;
+    // the centers of the blobs, in frame coordinates
+    private final double[] xs;
+    private final double[] ys;
+    // the bounding box of each blob as left, top, right, bottom, in frame coordinates
+    private final int[] boxes;
+    // the mean of the centers; NaN if there are no blobs
+    private final Point center;
+    // System.nanoTime() when the frame arrived
+    private final long frameTime;
+    // the number of the frame, counting from 1
+    private final long frame;
+
+    /**
+     * Creates x result, copying the first count blobs out of the detector's workspace.
+     *
+     * @param count The number of blobs
+     * @param xs The blob center X coordinates
+     * @param ys The blob center Y coordinates
+     * @param boxes The blob bounding boxes, 4 values each
+     * @param frameTime System.nanoTime() when the frame arrived
+     * @param frame The number of the frame
+     */
+    BlobResult(int count, double[] xs, double[] ys, int[] boxes, long frameTime, long frame) {
+        this.count = count;
+        this.xs = Arrays.copyOf(xs, count);
+        this.ys = Arrays.copyOf(ys, count);
+        this.boxes = Arrays.copyOf(boxes, count * 4);
+        this.frameTime = frameTime;
+        this.frame = frame;
+
+        double x = 0, y = 0;
+        for (int i = 0; i < count; i++) {
+            x += xs[i];
+            y += ys[i];
+        }
+        center = new Point(x / count, y / count);
+    }
+
+    /**
+     * Gets the number of blobs.
+     *
+     * @return the blob count
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Gets the X coordinate of x blob's center.
+     *
+     * @param i The blob, from 0 to {@link #getCount()}
+     * @return the X coordinate, in frame coordinates
+     */
+    public double getX(int i) {
+        return xs[i];
+    }
+
+    /**
+     * Gets the Y coordinate of x blob's center.
+     *
+     * @param i The blob, from 0 to {@link #getCount()}
+     * @return the Y coordinate, in frame coordinates
+     */
+    public double getY(int i) {
+        return ys[i];
+    }
+
+    /**
+     * Gets one edge of x blob's bounding box.
+     *
+     * @param i The blob, from 0 to {@link #getCount()}
+     * @param edge 0 for left, 1 for top, 2 for right, 3 for bottom
+     * @return the edge, in frame coordinates
+     */
+    public int getBox(int i, int edge) {
+        return boxes[i * 4 + edge];
+    }
+
+    /**
+     * Gets the mean of the blob centers. The point is shared, so don't change it.
+     *
+     * @return the mean center, with NaN coordinates if there are no blobs
+     */
+    public Point getCenter() {
+        return center;
+    }
+
+    /**
+     * Gets when the frame arrived.
+     *
+     * @return System.nanoTime() at arrival
+     */
+    public long getFrameTime() {
+        return frameTime;
+    }
+
+    /**
+     * Gets how long ago the frame arrived.
+     *
+     * @return the age in seconds
+     */
+    public double getAge() {
+        return (System.nanoTime() - frameTime) / 1e9;
+    }
+
+    /**
+     * Gets the number of the frame.
+     *
+     * @return the frame number, counting from 1
+     */
+    public long getFrame() {
+        return frame;
+    }
+}
@@ -1,5 +1,5 @@
 /*
- * Copyright (c) 2017 Vines High School Robotics Team
+ * Copyright (c) 2018 Vines High School Robotics Team
  *
  *                            Permission is hereby granted, free of charge, to any person obtaining a copy
  *                            of this software and associated documentation files (the "Software"), to deal
@@ -20,32 +20,18 @@
  *                            SOFTWARE.
  */
 
-package org.vinesrobotics.bot.utils.curves;
+package org.vinesrobotics.bot.utils.opencv;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
-
-public class PolynomialCurve extends CurveBase {
-
-    private List<Double> coefficients;
-
-    public PolynomialCurve(double... coe) {
-        coefficients = new ArrayList<>();
-        for (double d : coe) {
-            coefficients.add(d);
-        }
-        Collections.reverse(coefficients);
-    }
-
-    @Override
-    public double getValue(double x) {
-        double sum = 0;
-        int i = 1;
-        for (double co : coefficients) {
-            sum = sum + co * Math.pow(x, i);
-            i++;
-        }
-        return sum;
-    }
+/**
+ * Something that publishes the blobs of one colour, whether x {@link ColorBlobDetector} or x
+ * class of the {@link Nv21Vision} fallback, so an OpMode can read either the same way.
+ */
+public interface BlobSource {
+    /**
+     * Gets the newest result. Safe to call from any thread; the result never changes, so read
+     * everything needed from the same one.
+     *
+     * @return the result, or null if no frame has been processed yet
+     */
+    BlobResult getResult();
 }
@@ -27,8 +27,8 @@ package org.vinesrobotics.bot.utils.opencv;
  */
 
 import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.opencv.core.Core;
 import org.opencv.core.CvType;
@@ -37,26 +37,88 @@ import org.opencv.core.MatOfPoint;
 import org.opencv.core.Point;
 import org.opencv.core.Scalar;
 import org.opencv.imgproc.Imgproc;
-import org.opencv.imgproc.Moments;
 
-public class ColorBlobDetector {
-    // Lower and Upper bounds for range checking in HSV color space
-    private Scalar mLowerBound = new Scalar(0);
-    private Scalar mUpperBound = new Scalar(0);
+public class ColorBlobDetector implements BlobSource {
+    /**
+     * How blobs are found in the thresholded mask.
+     */
+    public enum Mode {
+        /** Trace the outer contour of each blob and measure the polygon */
+        CONTOURS,
+        /**
+         * Label the connected components and take their stats in one native call. Areas are
+         * pixel counts rather than polygon areas, and x blob inside x hole of another is
+         * found on its own.
+         */
+        COMPONENTS
+    }
+
+    // Lower and Upper bounds for range checking in HSV color space; replaced, never changed,
+    // as the vision thread reads them
+    private volatile Scalar mLowerBound = new Scalar(0);
+    private volatile Scalar mUpperBound = new Scalar(0);
+    // How blobs are found in the mask
+    private volatile Mode mMode = Mode.CONTOURS;
+    // Whether {@link #draw(Mat)} draws anything
+    private volatile boolean mDrawEnabled = true;
     // Minimum contour area in percent for contours filtering
     private static double mMinContourArea = 0.1;
     // Color radius for range checking in HSV color space
     private Scalar mColorRadius = new Scalar(25,255,255);
-    private Scalar mBaseColor = new Scalar(0);
+    private volatile Scalar mBaseColor = new Scalar(0);
     private Mat mSpectrum = new Mat();
-    private List<MatOfPoint> mContours = new ArrayList<MatOfPoint>();
+
+    // The newest result; null until the first frame is processed
+    private final AtomicReference<BlobResult> mResult = new AtomicReference<>();
+    // Number of frames processed
+    private long mFrames = 0;
+
+    // Preprocessing for frames passed in on their own; null until used
+    private FramePreprocessor mPreprocessor = null;
 
     // Cache
-    Mat mPyrDownMat = new Mat();
-    Mat mHsvMat = new Mat();
     Mat mMask = new Mat();
     Mat mDilatedMask = new Mat();
     Mat mHierarchy = new Mat();
+    // Dilation kernel; empty for the default 3x3
+    private final Mat mKernel = new Mat();
+    // Contours from the last findContours; each is released as soon as it's measured
+    private final List<MatOfPoint> mFound = new ArrayList<>();
+    // Outputs of connectedComponentsWithStats, and its stats and centroids read back in bulk
+    private final Mat mComponentLabels = new Mat();
+    private final Mat mStats = new Mat();
+    private final Mat mCentroids = new Mat();
+    private int[] mStatValues = new int[16 * 5];
+    private double[] mCentroidValues = new double[16 * 2];
+
+    // Workspace, grown as needed and reused every frame
+    // contour points, as x, y pairs
+    private int[] mPoints = new int[256];
+    // area, center and bounding box (left, top, right, bottom) of each contour
+    private double[] mAreas = new double[16];
+    private double[] mCx = new double[16];
+    private double[] mCy = new double[16];
+    private int[] mBoxes = new int[16 * 4];
+
+    // Static region of interest as left, top, right, bottom fractions of the frame; replaced,
+    // never changed
+    private volatile double[] mRoi = {0, 0, 1, 1};
+    // Whether to narrow the search to the last detection
+    private volatile boolean mAdaptive = false;
+    // Space left around the last detection, as x fraction of its size on each side
+    private volatile double mTrackMargin = 1;
+    // The adaptive search window as left, top, right, bottom, in downsampled pixels
+    private final int[] mWindow = new int[4];
+    // Whether mWindow is narrower than the static region
+    private boolean mTracking = false;
+    // Offset of the searched region, passed to findContours
+    private final Point mOffset = new Point();
+    // Pixels searched in the last frame
+    private volatile int mLastPixels = 0;
+
+    // Corners for drawing, reused by {@link #draw(Mat)}
+    private final Point mDrawTopLeft = new Point();
+    private final Point mDrawBottomRight = new Point();
 
     public void setColorRadius(Scalar radius) {
         mColorRadius = radius;
@@ -66,17 +128,14 @@ public class ColorBlobDetector {
         double minH = (hsvColor.val[0] >= mColorRadius.val[0]) ? hsvColor.val[0]-mColorRadius.val[0] : 0;
         double maxH = (hsvColor.val[0]+mColorRadius.val[0] <= 255) ? hsvColor.val[0]+mColorRadius.val[0] : 255;
 
-        mLowerBound.val[0] = minH;
-        mUpperBound.val[0] = maxH;
-
-        mLowerBound.val[1] = hsvColor.val[1] - mColorRadius.val[1];
-        mUpperBound.val[1] = hsvColor.val[1] + mColorRadius.val[1];
-
-        mLowerBound.val[2] = hsvColor.val[2] - mColorRadius.val[2];
-        mUpperBound.val[2] = hsvColor.val[2] + mColorRadius.val[2];
-
-        mLowerBound.val[3] = 0;
-        mUpperBound.val[3] = 255;
+        mLowerBound = new Scalar(minH,
+                hsvColor.val[1] - mColorRadius.val[1],
+                hsvColor.val[2] - mColorRadius.val[2],
+                0);
+        mUpperBound = new Scalar(maxH,
+                hsvColor.val[1] + mColorRadius.val[1],
+                hsvColor.val[2] + mColorRadius.val[2],
+                255);
 
         Mat spectrumHsv = new Mat(1, (int)Math.abs(maxH-minH), CvType.CV_8UC3);
 
@@ -98,63 +157,413 @@ public class ColorBlobDetector {
         mMinContourArea = area;
     }
 
-    public List<Point> colorCenterPoints = new ArrayList<>();
-    public Point centerOfAll = null;
+    /**
+     * Sets how blobs are found in the mask. Both modes give the same kind of result, so they can
+     * be benchmarked against each other.
+     *
+     * @param mode The mode
+     */
+    public void setMode(Mode mode) {
+        if (mode == null) throw new IllegalArgumentException("mode must not be null");
+        mMode = mode;
+    }
+
+    /**
+     * Gets how blobs are found in the mask.
+     *
+     * @return the mode
+     */
+    public Mode getMode() {
+        return mMode;
+    }
 
+    /**
+     * Turns drawing the blobs on the preview on or off. Detection is the same either way.
+     *
+     * @param enabled Whether {@link #draw(Mat)} draws
+     */
+    public void setDrawEnabled(boolean enabled) {
+        mDrawEnabled = enabled;
+    }
+
+    /**
+     * Limits the search to x region of the frame. Blobs outside it are never found, and the
+     * pixels outside it are never thresholded.
+     *
+     * @param left Left edge, as x fraction of the frame width
+     * @param top Top edge, as x fraction of the frame height
+     * @param right Right edge, as x fraction of the frame width
+     * @param bottom Bottom edge, as x fraction of the frame height
+     * @throws IllegalArgumentException if the region is empty or not inside the frame
+     */
+    public void setRoi(double left, double top, double right, double bottom) {
+        if (left < 0 || top < 0 || right > 1 || bottom > 1 || left >= right || top >= bottom)
+            throw new IllegalArgumentException("ROI must be a non-empty region inside 0 to 1");
+        mRoi = new double[]{left, top, right, bottom};
+    }
+
+    /**
+     * Searches the whole frame again.
+     */
+    public void clearRoi() {
+        mRoi = new double[]{0, 0, 1, 1};
+    }
+
+    /**
+     * Turns adaptive search on or off. When on, each frame only searches around the blobs found
+     * in the last one, within the static region. Each frame that finds nothing doubles the
+     * window, until it's back to the whole static region.
+     *
+     * @param adaptive Whether to track the last detection
+     */
+    public void setAdaptiveRoi(boolean adaptive) {
+        mAdaptive = adaptive;
+    }
+
+    /**
+     * Sets how much space adaptive search leaves around the last detection.
+     *
+     * @param margin Space on each side, as x fraction of the detection's width or height
+     */
+    public void setTrackMargin(double margin) {
+        mTrackMargin = Math.max(0, margin);
+    }
+
+    /**
+     * Gets the number of pixels searched in the last frame, for comparing ROI settings.
+     *
+     * @return the pixel count, in downsampled pixels
+     */
+    public int getLastPixels() {
+        return mLastPixels;
+    }
+
+    /**
+     * Finds the blobs in x frame, downsampling and converting it first.
+     *
+     * @param rgbaImage The camera frame; the blobs are drawn on it
+     * @see #detect(Mat, long)
+     */
     public void process(Mat rgbaImage) {
-        Imgproc.pyrDown(rgbaImage, mPyrDownMat);
-        Imgproc.pyrDown(mPyrDownMat, mPyrDownMat);
+        if (mPreprocessor == null) mPreprocessor = new FramePreprocessor();
+        detect(mPreprocessor.process(rgbaImage), System.nanoTime());
+        draw(rgbaImage);
+    }
 
-        Imgproc.cvtColor(mPyrDownMat, mHsvMat, Imgproc.COLOR_RGB2HSV_FULL);
+    /**
+     * Finds the blobs in x frame that has already been through x {@link FramePreprocessor}, so
+     * several detectors can share it, and publishes them as the newest {@link BlobResult}.
+     * Only one thread may call this at x time.
+     *
+     * @param hsvImage The frame, downsampled and converted by {@link FramePreprocessor#process(Mat)}
+     * @param frameTime System.nanoTime() when the frame arrived
+     * @return the result
+     */
+    public BlobResult detect(Mat hsvImage, long frameTime) {
+        return find(hsvImage, mLowerBound, mUpperBound, frameTime);
+    }
 
-        Core.inRange(mHsvMat, mLowerBound, mUpperBound, mMask);
-        Imgproc.dilate(mMask, mDilatedMask, new Mat());
+    /**
+     * Finds the blobs of one class in x label image from {@link ColorClassifier#classify(Mat)},
+     * and publishes them as the newest {@link BlobResult}. Only one thread may call this at x time.
+     *
+     * @param labels The label image
+     * @param label The class label, in all channels
+     * @param frameTime System.nanoTime() when the frame arrived
+     * @return the result
+     */
+    BlobResult detectLabel(Mat labels, Scalar label, long frameTime) {
+        return find(labels, label, label, frameTime);
+    }
 
-        List<MatOfPoint> contours = new ArrayList<MatOfPoint>();
+    /**
+     * Gets the lower HSV bound set by {@link #setHsvColor(Scalar)}.
+     *
+     * @return the bound; shared, so don't change it
+     */
+    Scalar getLowerBound() {
+        return mLowerBound;
+    }
+
+    /**
+     * Gets the upper HSV bound set by {@link #setHsvColor(Scalar)}.
+     *
+     * @return the bound; shared, so don't change it
+     */
+    Scalar getUpperBound() {
+        return mUpperBound;
+    }
+
+    /**
+     * Thresholds an image to the given bounds within the search region, finds the blobs in the
+     * mask and publishes them.
+     *
+     * @param image The downsampled image to threshold
+     * @param lower The lower bound
+     * @param upper The upper bound
+     * @param frameTime System.nanoTime() when the frame arrived
+     * @return the result
+     */
+    private BlobResult find(Mat image, Scalar lower, Scalar upper, long frameTime) {
+        // Work out the region to search, in downsampled pixels
+        int cols = image.cols();
+        int rows = image.rows();
+        double[] roi = mRoi;
+        int left = (int) Math.floor(roi[0] * cols);
+        int top = (int) Math.floor(roi[1] * rows);
+        int right = (int) Math.ceil(roi[2] * cols);
+        int bottom = (int) Math.ceil(roi[3] * rows);
+        int roiLeft = left, roiTop = top, roiRight = right, roiBottom = bottom;
+        if (mAdaptive && mTracking) {
+            left = Math.max(left, mWindow[0]);
+            top = Math.max(top, mWindow[1]);
+            right = Math.min(right, mWindow[2]);
+            bottom = Math.min(bottom, mWindow[3]);
+        }
+        if (left >= right || top >= bottom) {
+            // The window drifted out of the region; search all of it
+            left = roiLeft; top = roiTop; right = roiRight; bottom = roiBottom;
+            mTracking = false;
+        }
+        mLastPixels = (right - left) * (bottom - top);
 
-        Imgproc.findContours(mDilatedMask, contours, mHierarchy, Imgproc.RETR_EXTERNAL, Imgproc.CHAIN_APPROX_SIMPLE);
+        boolean whole = left == 0 && top == 0 && right == cols && bottom == rows;
+        Mat region = whole ? image : image.submat(top, bottom, left, right);
+        Core.inRange(region, lower, upper, mMask);
+        if (!whole) region.release();
+        Imgproc.dilate(mMask, mDilatedMask, mKernel);
 
-        // Filter contours by area and resize to fit the original image size
+        int found = mMode == Mode.COMPONENTS ? findComponents(left, top) : findContours(left, top);
         double maxArea = 0;
-        Iterator<MatOfPoint> each = contours.iterator();
+        for (int i = 0; i < found; i++) {
+            if (mAreas[i] > maxArea)
+                maxArea = mAreas[i];
+        }
+
+        // Filter contours by area, moving the kept ones to the front, and resize to fit the
+        // original image size
+        int kept = 0;
+        double minArea = mMinContourArea * maxArea;
+        int unionLeft = Integer.MAX_VALUE, unionTop = Integer.MAX_VALUE;
+        int unionRight = Integer.MIN_VALUE, unionBottom = Integer.MIN_VALUE;
+        for (int i = 0; i < found; i++) {
+            if (mAreas[i] <= minArea) continue;
+            unionLeft = Math.min(unionLeft, mBoxes[i * 4]);
+            unionTop = Math.min(unionTop, mBoxes[i * 4 + 1]);
+            unionRight = Math.max(unionRight, mBoxes[i * 4 + 2] + 1);
+            unionBottom = Math.max(unionBottom, mBoxes[i * 4 + 3] + 1);
+            mCx[kept] = mCx[i] * FramePreprocessor.SCALE;
+            mCy[kept] = mCy[i] * FramePreprocessor.SCALE;
+            for (int e = 0; e < 4; e++)
+                mBoxes[kept * 4 + e] = mBoxes[i * 4 + e] * FramePreprocessor.SCALE;
+            kept++;
+        }
+
+        if (mAdaptive) {
+            if (kept > 0) track(unionLeft, unionTop, unionRight, unionBottom);
+            else widen(roiLeft, roiTop, roiRight, roiBottom);
+        } else {
+            mTracking = false;
+        }
+
+        BlobResult result = new BlobResult(kept, mCx, mCy, mBoxes, frameTime, ++mFrames);
+        mResult.set(result);
+        return result;
+    }
 
-        while (each.hasNext()) {
-            MatOfPoint wrapper = each.next();
-            double area = Imgproc.contourArea(wrapper);
-            if (area > maxArea)
-                maxArea = area;
+    /**
+     * Finds the outer contours in the dilated mask and measures each into the workspace.
+     *
+     * @param left Left edge of the mask in the frame, in downsampled pixels
+     * @param top Top edge of the mask in the frame
+     * @return the number of blobs found
+     */
+    private int findContours(int left, int top) {
+        // Offset the contours back into frame coordinates
+        mOffset.x = left;
+        mOffset.y = top;
+        Imgproc.findContours(mDilatedMask, mFound, mHierarchy, Imgproc.RETR_EXTERNAL, Imgproc.CHAIN_APPROX_SIMPLE, mOffset);
+
+        // Measure every contour, then free it rather than leave it to x finalizer
+        int found = mFound.size();
+        ensureCapacity(found);
+        for (int i = 0; i < found; i++) {
+            MatOfPoint contour = mFound.get(i);
+            measure(contour, i);
+            contour.release();
         }
+        mFound.clear();
+        return found;
+    }
 
-        mContours.clear();
-        each = contours.iterator();
-        while (each.hasNext()) {
-            MatOfPoint contour = each.next();
-            if (Imgproc.contourArea(contour) > mMinContourArea*maxArea) {
-                Core.multiply(contour, new Scalar(4,4), contour);
-                mContours.add(contour);
-            }
+    /**
+     * Labels the connected components of the dilated mask and copies the area, centroid and
+     * bounding box of each into the workspace, reading the stats back in two bulk gets.
+     *
+     * @param left Left edge of the mask in the frame, in downsampled pixels
+     * @param top Top edge of the mask in the frame
+     * @return the number of blobs found
+     */
+    private int findComponents(int left, int top) {
+        int labels = Imgproc.connectedComponentsWithStats(mDilatedMask, mComponentLabels, mStats, mCentroids, 8, CvType.CV_32S);
+        // Label 0 is the background
+        int found = labels - 1;
+        if (found <= 0) return 0;
+        ensureCapacity(found);
+        if (mStatValues.length < labels * 5) {
+            mStatValues = new int[labels * 5 * 2];
+            mCentroidValues = new double[labels * 2 * 2];
+        }
+        mStats.get(0, 0, mStatValues);
+        mCentroids.get(0, 0, mCentroidValues);
+
+        for (int i = 0; i < found; i++) {
+            int s = (i + 1) * 5;
+            int c = (i + 1) * 2;
+            int x = mStatValues[s + Imgproc.CC_STAT_LEFT] + left;
+            int y = mStatValues[s + Imgproc.CC_STAT_TOP] + top;
+            mAreas[i] = mStatValues[s + Imgproc.CC_STAT_AREA];
+            mCx[i] = mCentroidValues[c] + left;
+            mCy[i] = mCentroidValues[c + 1] + top;
+            mBoxes[i * 4] = x;
+            mBoxes[i * 4 + 1] = y;
+            mBoxes[i * 4 + 2] = x + mStatValues[s + Imgproc.CC_STAT_WIDTH] - 1;
+            mBoxes[i * 4 + 3] = y + mStatValues[s + Imgproc.CC_STAT_HEIGHT] - 1;
         }
+        return found;
+    }
+
+    /**
+     * Narrows the adaptive window to x detection and the margin around it.
+     *
+     * @param left Left edge of the detection, in downsampled pixels
+     * @param top Top edge of the detection
+     * @param right Right edge of the detection, exclusive
+     * @param bottom Bottom edge of the detection, exclusive
+     */
+    private void track(int left, int top, int right, int bottom) {
+        double margin = mTrackMargin;
+        // At least x pixel of margin, so x blob sitting on the edge isn't cut off
+        int mx = Math.max(1, (int) Math.ceil((right - left) * margin));
+        int my = Math.max(1, (int) Math.ceil((bottom - top) * margin));
+        mWindow[0] = left - mx;
+        mWindow[1] = top - my;
+        mWindow[2] = right + mx;
+        mWindow[3] = bottom + my;
+        mTracking = true;
+    }
 
-        Imgproc.drawContours(rgbaImage, mContours, -1, mBaseColor);
+    /**
+     * Doubles the adaptive window around its center after x miss, and stops tracking once it
+     * covers the static region.
+     *
+     * @param left Left edge of the static region, in downsampled pixels
+     * @param top Top edge of the static region
+     * @param right Right edge of the static region, exclusive
+     * @param bottom Bottom edge of the static region, exclusive
+     */
+    private void widen(int left, int top, int right, int bottom) {
+        if (!mTracking) return;
+        int hw = (mWindow[2] - mWindow[0] + 1) / 2;
+        int hh = (mWindow[3] - mWindow[1] + 1) / 2;
+        mWindow[0] -= hw;
+        mWindow[1] -= hh;
+        mWindow[2] += hw;
+        mWindow[3] += hh;
+        if (mWindow[0] <= left && mWindow[1] <= top && mWindow[2] >= right && mWindow[3] >= bottom)
+            mTracking = false;
+    }
+
+    /**
+     * Grows the workspace to hold at least n contours.
+     *
+     * @param n The number of contours
+     */
+    private void ensureCapacity(int n) {
+        if (mAreas.length >= n) return;
+        int size = Math.max(n, mAreas.length * 2);
+        mAreas = new double[size];
+        mCx = new double[size];
+        mCy = new double[size];
+        mBoxes = new int[size * 4];
+    }
 
-        each = mContours.iterator();
-        ArrayList<Point> centers = new ArrayList<>();
-        while (each.hasNext()) {
-            MatOfPoint wrapper = each.next();
-            Moments moments = Imgproc.moments(wrapper);
-            centers.add(new Point(moments.m10/moments.m00, moments.m01/moments.m00));
+    /**
+     * Measures the area, centroid and bounding box of x contour into slot i of the workspace.
+     * The area and centroid come from the same polygon sums that {@link Imgproc#contourArea(Mat)}
+     * and {@link Imgproc#moments(Mat)} use, without allocating x {@code Moments} per contour.
+     *
+     * @param contour The contour, in downsampled coordinates
+     * @param i The slot
+     */
+    private void measure(MatOfPoint contour, int i) {
+        int n = contour.rows();
+        if (mPoints.length < n * 2) mPoints = new int[Math.max(n * 2, mPoints.length * 2)];
+        if (n == 0) {
+            mAreas[i] = 0;
+            return;
+        }
+        contour.get(0, 0, mPoints);
+
+        double area = 0, sx = 0, sy = 0;
+        int left = Integer.MAX_VALUE, top = Integer.MAX_VALUE;
+        int right = Integer.MIN_VALUE, bottom = Integer.MIN_VALUE;
+
+        // Walk the edges of the closed polygon, starting from the last point back to the first
+        int px = mPoints[n * 2 - 2];
+        int py = mPoints[n * 2 - 1];
+        for (int j = 0; j < n; j++) {
+            int x = mPoints[j * 2];
+            int y = mPoints[j * 2 + 1];
+            double cross = (double) px * y - (double) x * py;
+            area += cross;
+            sx += (px + x) * cross;
+            sy += (py + y) * cross;
+
+            if (x < left) left = x;
+            if (x > right) right = x;
+            if (y < top) top = y;
+            if (y > bottom) bottom = y;
+            px = x;
+            py = y;
         }
-        colorCenterPoints = centers;
 
-        Point avg = new Point(0,0);
-        for (Point p : centers)
-            avg.set(new double[]{avg.x+p.x,avg.y+p.y});
-        avg.set(new double[]{avg.x/centers.size(),avg.y/centers.size()});
-        centerOfAll = avg;
+        // The sums are signed by the winding direction, which cancels out of the centroid
+        mAreas[i] = Math.abs(area) / 2;
+        mCx[i] = sx / (3 * area);
+        mCy[i] = sy / (3 * area);
+        mBoxes[i * 4] = left;
+        mBoxes[i * 4 + 1] = top;
+        mBoxes[i * 4 + 2] = right;
+        mBoxes[i * 4 + 3] = bottom;
+    }
 
+    /**
+     * Draws the bounding boxes from the newest result on x frame. Only one thread may call this.
+     *
+     * @param rgbaImage The frame to draw on
+     */
+    public void draw(Mat rgbaImage) {
+        if (!mDrawEnabled) return;
+        BlobResult result = mResult.get();
+        if (result == null) return;
+        for (int i = 0; i < result.getCount(); i++) {
+            mDrawTopLeft.x = result.getBox(i, 0);
+            mDrawTopLeft.y = result.getBox(i, 1);
+            mDrawBottomRight.x = result.getBox(i, 2);
+            mDrawBottomRight.y = result.getBox(i, 3);
+            Imgproc.rectangle(rgbaImage, mDrawTopLeft, mDrawBottomRight, mBaseColor);
+        }
     }
 
-    public List<MatOfPoint> getContours() {
-        return mContours;
+    /**
+     * Gets the newest result. Safe to call from any thread; the result never changes, so read
+     * everything needed from the same one.
+     *
+     * @return the result, or null if no frame has been processed yet
+     */
+    @Override
+    public BlobResult getResult() {
+        return mResult.get();
     }
-}
\ No newline at end of file
+}
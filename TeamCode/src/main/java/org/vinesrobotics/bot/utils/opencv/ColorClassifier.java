@@ -0,0 +1,316 @@
+/*
+ * Copyright (c) 2018 Vines High School Robotics Team
+ *
+ *                            Permission is hereby granted, free of charge, to any person obtaining a copy
+ *                            of this software and associated documentation files (the "Software"), to deal
+ *                            in the Software without restriction, including without limitation the rights
+ *                            to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *                            copies of the Software, and to permit persons to whom the Software is
+ *                            furnished to do so, subject to the following conditions:
+ *
+ *                            The above copyright notice and this permission notice shall be included in all
+ *                            copies or substantial portions of the Software.
+ *
+ *                            THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *                            IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *                            FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *                            AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *                            LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *                            OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *                            SOFTWARE.
+ */
+
+package org.vinesrobotics.bot.utils.opencv;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Scalar;
+import org.vinesrobotics.bot.utils.vision.Nv21Segmenter;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Labels every pixel of x downsampled HSV frame with x colour class in one pass, through x
+ * lookup table indexed by quantized hue, saturation and value. Each class has x
+ * {@link ColorBlobDetector} that finds its blobs in the label image. Only the colour conversion
+ * and classification are shared: every class still thresholds, dilates and searches the whole
+ * label image for contours, so each class added costs about as much as one more detector.
+ * <p>
+ * Classes are boxes in HSV space. A hue range whose low end is above its high end wraps around
+ * through 0, so red is one class. Where classes overlap, the one added first wins.
+ * <p>
+ * A second table, indexed by quantized luma and chroma, labels frames downsampled straight from
+ * the camera's NV21 by {@link FramePreprocessor#processNv21(Mat)}, so neither the RGBA nor the
+ * HSV conversion is needed. Each of its cells takes the class of the HSV colour at its center.
+ */
+public class ColorClassifier {
+    // bits of each channel used to index the table
+    public static final int H_BITS = 6;
+    public static final int S_BITS = 5;
+    public static final int V_BITS = 5;
+    // bits of luma and of each chroma channel used to index the YUV table
+    public static final int LUMA_BITS = 4;
+    public static final int CHROMA_BITS = 6;
+    // the most classes there can be; label 0 is no class
+    public static final int MAX_CLASSES = 255;
+
+    // the label of each quantized colour, indexed by {@link #index(int, int, int)}; replaced,
+    // never changed, as the vision thread reads it
+    private volatile byte[] lut = new byte[1 << (H_BITS + S_BITS + V_BITS)];
+    // the label of each quantized YUV colour, indexed by {@link #yuvIndex(int, int, int)}
+    private volatile byte[] yuvLut = new byte[1 << (LUMA_BITS + 2 * CHROMA_BITS)];
+    // the detector for each class, in label order
+    private final CopyOnWriteArrayList<ColorBlobDetector> detectors = new CopyOnWriteArrayList<>();
+    // the label of each class, as x Scalar for thresholding the label image
+    private final CopyOnWriteArrayList<Scalar> labels = new CopyOnWriteArrayList<>();
+
+    // Cache
+    private byte[] mPixels = new byte[0];
+    private byte[] mLuma = new byte[0];
+    private byte[] mChroma = new byte[0];
+    private byte[] mLabelBytes = new byte[0];
+    private Mat mLabels = new Mat();
+
+    /**
+     * Adds x class for the colours within x radius of x base colour. Unlike
+     * {@link ColorBlobDetector#setHsvColor(Scalar)}, the hue range wraps around.
+     *
+     * @param hsvColor The base colour
+     * @param radius The radius in hue, saturation and value
+     * @return the detector that finds the class's blobs
+     */
+    public ColorBlobDetector addClass(Scalar hsvColor, Scalar radius) {
+        int h = (int) Math.round(hsvColor.val[0]);
+        int r = (int) Math.round(radius.val[0]);
+        int hLow = r >= 128 ? 0 : (h - r) & 0xFF;
+        int hHigh = r >= 128 ? 255 : (h + r) & 0xFF;
+        return addClass(hLow, hHigh,
+                hsvColor.val[1] - radius.val[1], hsvColor.val[1] + radius.val[1],
+                hsvColor.val[2] - radius.val[2], hsvColor.val[2] + radius.val[2]);
+    }
+
+    /**
+     * Adds x class for the colours x detector is already set up to find, with the same bounds
+     * as its {@link ColorBlobDetector#setHsvColor(Scalar)}. The detector then reads this
+     * classifier's label image instead of thresholding the frame itself, so it should only be
+     * run through {@link #detect(Mat, long)}.
+     * <p>
+     * The bounds are copied into the table when the class is added, so x later
+     * {@link ColorBlobDetector#setHsvColor(Scalar)} on the detector has no effect here; to change
+     * the colour, set it up in x new classifier.
+     *
+     * @param det The detector
+     * @return the detector
+     */
+    public ColorBlobDetector addClass(ColorBlobDetector det) {
+        Scalar lo = det.getLowerBound();
+        Scalar hi = det.getUpperBound();
+        return addClass(det, (int) lo.val[0], (int) hi.val[0], lo.val[1], hi.val[1], lo.val[2], hi.val[2]);
+    }
+
+    /**
+     * Adds x class for x box in HSV space. All bounds are inclusive, on OpenCV's full range
+     * 0 to 255 scale.
+     *
+     * @param hLow Lowest hue
+     * @param hHigh Highest hue; below hLow to wrap around through 0
+     * @param sLow Lowest saturation
+     * @param sHigh Highest saturation
+     * @param vLow Lowest value
+     * @param vHigh Highest value
+     * @return the detector that finds the class's blobs
+     */
+    public ColorBlobDetector addClass(int hLow, int hHigh, double sLow, double sHigh, double vLow, double vHigh) {
+        return addClass(new ColorBlobDetector(), hLow, hHigh, sLow, sHigh, vLow, vHigh);
+    }
+
+    /**
+     * Adds x class and fills in its cells of the table.
+     */
+    private synchronized ColorBlobDetector addClass(ColorBlobDetector det, int hLow, int hHigh,
+                                                    double sLow, double sHigh, double vLow, double vHigh) {
+        if (detectors.size() >= MAX_CLASSES)
+            throw new IllegalStateException("No more than " + MAX_CLASSES + " colour classes");
+        int label = detectors.size() + 1;
+
+        // Each cell takes the class of the colour at its center, unless an earlier class has it
+        byte[] next = lut.clone();
+        for (int i = 0; i < next.length; i++) {
+            if (next[i] != 0) continue;
+            double h = center(i >> (S_BITS + V_BITS), H_BITS);
+            double s = center(i >> V_BITS, S_BITS);
+            double v = center(i, V_BITS);
+            if (contains(hLow, hHigh, sLow, sHigh, vLow, vHigh, h, s, v))
+                next[i] = (byte) label;
+        }
+
+        byte[] nextYuv = yuvLut.clone();
+        double[] hsv = new double[3];
+        for (int i = 0; i < nextYuv.length; i++) {
+            if (nextYuv[i] != 0) continue;
+            Nv21Segmenter.toHsv(center(i >> (2 * CHROMA_BITS), LUMA_BITS),
+                    center(i >> CHROMA_BITS, CHROMA_BITS), center(i, CHROMA_BITS), hsv);
+            if (contains(hLow, hHigh, sLow, sHigh, vLow, vHigh, hsv[0], hsv[1], hsv[2]))
+                nextYuv[i] = (byte) label;
+        }
+
+        labels.add(new Scalar(label));
+        detectors.add(det);
+        lut = next;
+        yuvLut = nextYuv;
+        return det;
+    }
+
+    /**
+     * Checks whether x colour is in x class's box, wrapping the hue range if need be.
+     */
+    private static boolean contains(int hLow, int hHigh, double sLow, double sHigh, double vLow, double vHigh,
+                                    double h, double s, double v) {
+        boolean inHue = hLow <= hHigh ? (h >= hLow && h <= hHigh) : (h >= hLow || h <= hHigh);
+        return inHue && s >= sLow && s <= sHigh && v >= vLow && v <= vHigh;
+    }
+
+    /**
+     * Gets the value at the center of x table cell.
+     *
+     * @param q The cell index along one channel; higher bits are ignored
+     * @param bits The bits of that channel in the index
+     * @return the center value, 0 to 255
+     */
+    private static double center(int q, int bits) {
+        int step = 256 >> bits;
+        return (q & ((1 << bits) - 1)) * step + (step - 1) / 2.0;
+    }
+
+    /**
+     * Gets the index of x colour in the table.
+     *
+     * @param h Hue, 0 to 255
+     * @param s Saturation, 0 to 255
+     * @param v Value, 0 to 255
+     * @return the table index
+     */
+    private static int index(int h, int s, int v) {
+        return ((h >> (8 - H_BITS)) << (S_BITS + V_BITS)) | ((s >> (8 - S_BITS)) << V_BITS) | (v >> (8 - V_BITS));
+    }
+
+    /**
+     * Gets the index of x YUV colour in the YUV table.
+     *
+     * @param y Luma, 0 to 255
+     * @param u Blue difference, 0 to 255
+     * @param v Red difference, 0 to 255
+     * @return the table index
+     */
+    private static int yuvIndex(int y, int u, int v) {
+        return ((y >> (8 - LUMA_BITS)) << (2 * CHROMA_BITS)) | ((u >> (8 - CHROMA_BITS)) << CHROMA_BITS) | (v >> (8 - CHROMA_BITS));
+    }
+
+    /**
+     * Labels every pixel of x frame with its class. Only one thread may call this at x time.
+     *
+     * @param hsvImage The frame, downsampled and converted by {@link FramePreprocessor#process(Mat)}
+     * @return an 8 bit image of labels, 0 for no class and n for the nth class added; reused by
+     *          the next call, so don't keep it
+     */
+    public Mat classify(Mat hsvImage) {
+        int rows = hsvImage.rows();
+        int cols = hsvImage.cols();
+        int n = rows * cols;
+        if (mPixels.length != n * 3) mPixels = new byte[n * 3];
+        if (mLabelBytes.length != n) mLabelBytes = new byte[n];
+        mLabels.create(rows, cols, CvType.CV_8UC1);
+
+        byte[] table = lut;
+        byte[] px = mPixels;
+        byte[] out = mLabelBytes;
+        hsvImage.get(0, 0, px);
+        for (int i = 0, p = 0; i < n; i++, p += 3) {
+            out[i] = table[index(px[p] & 0xFF, px[p + 1] & 0xFF, px[p + 2] & 0xFF)];
+        }
+        mLabels.put(0, 0, out);
+        return mLabels;
+    }
+
+    /**
+     * Labels every pixel of x frame in YUV with its class. Only one thread may call this at x
+     * time.
+     *
+     * @param luma The frame's luma, downsampled by {@link FramePreprocessor#processNv21(Mat)}
+     * @param chroma The frame's V, U pairs, from {@link FramePreprocessor#getChroma()}
+     * @return an 8 bit image of labels, 0 for no class and n for the nth class added; reused by
+     *          the next call, so don't keep it
+     */
+    public Mat classifyNv21(Mat luma, Mat chroma) {
+        int rows = luma.rows();
+        int cols = luma.cols();
+        int n = rows * cols;
+        if (mLuma.length != n) {
+            mLuma = new byte[n];
+            mChroma = new byte[n * 2];
+        }
+        if (mLabelBytes.length != n) mLabelBytes = new byte[n];
+        mLabels.create(rows, cols, CvType.CV_8UC1);
+
+        byte[] table = yuvLut;
+        byte[] ys = mLuma;
+        byte[] vus = mChroma;
+        byte[] out = mLabelBytes;
+        luma.get(0, 0, ys);
+        chroma.get(0, 0, vus);
+        for (int i = 0, p = 0; i < n; i++, p += 2) {
+            out[i] = table[yuvIndex(ys[i] & 0xFF, vus[p + 1] & 0xFF, vus[p] & 0xFF)];
+        }
+        mLabels.put(0, 0, out);
+        return mLabels;
+    }
+
+    /**
+     * Labels x frame, then has every class's detector find its blobs and publish them. Each
+     * detector searches the whole label image, so this is one full-frame blob search per class.
+     *
+     * @param hsvImage The frame, downsampled and converted by {@link FramePreprocessor#process(Mat)}
+     * @param frameTime System.nanoTime() when the frame arrived
+     */
+    public void detect(Mat hsvImage, long frameTime) {
+        if (detectors.isEmpty()) return;
+        Mat labelImage = classify(hsvImage);
+        for (int i = 0; i < detectors.size(); i++) {
+            detectors.get(i).detectLabel(labelImage, labels.get(i), frameTime);
+        }
+    }
+
+    /**
+     * Labels x frame in YUV, then has every class's detector find its blobs and publish them,
+     * with one full-frame blob search per class as in {@link #detect(Mat, long)}.
+     *
+     * @param luma The frame's luma, downsampled by {@link FramePreprocessor#processNv21(Mat)}
+     * @param chroma The frame's V, U pairs, from {@link FramePreprocessor#getChroma()}
+     * @param frameTime System.nanoTime() when the frame arrived
+     */
+    public void detectNv21(Mat luma, Mat chroma, long frameTime) {
+        if (detectors.isEmpty()) return;
+        Mat labelImage = classifyNv21(luma, chroma);
+        for (int i = 0; i < detectors.size(); i++) {
+            detectors.get(i).detectLabel(labelImage, labels.get(i), frameTime);
+        }
+    }
+
+    /**
+     * Gets the detectors of every class, in label order.
+     *
+     * @return the detectors
+     */
+    public List<ColorBlobDetector> getDetectors() {
+        return Collections.unmodifiableList(detectors);
+    }
+
+    /**
+     * Frees the native memory of the label image.
+     */
+    public void release() {
+        mLabels.release();
+    }
+}
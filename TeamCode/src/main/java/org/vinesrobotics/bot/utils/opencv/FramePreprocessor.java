@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2018 Vines High School Robotics Team
+ *
+ *                            Permission is hereby granted, free of charge, to any person obtaining a copy
+ *                            of this software and associated documentation files (the "Software"), to deal
+ *                            in the Software without restriction, including without limitation the rights
+ *                            to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *                            copies of the Software, and to permit persons to whom the Software is
+ *                            furnished to do so, subject to the following conditions:
+ *
+ *                            The above copyright notice and this permission notice shall be included in all
+ *                            copies or substantial portions of the Software.
+ *
+ *                            THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *                            IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *                            FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *                            AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *                            LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *                            OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *                            SOFTWARE.
+ */
+
+package org.vinesrobotics.bot.utils.opencv;
+
+import org.opencv.core.Mat;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * The per-frame work every {@link ColorBlobDetector} needs before it can threshold: two
+ * {@link Imgproc#pyrDown(Mat, Mat)} passes and x conversion to HSV. {@link OpenCvManager} runs
+ * this once per frame and hands the result to all of its detectors.
+ * <p>
+ * Frames straight from the camera in NV21 can instead be downsampled without any conversion,
+ * for x {@link ColorClassifier} to label in YUV.
+ */
+public class FramePreprocessor {
+    // number of pyrDown passes
+    public static final int LEVELS = 2;
+    // how much smaller the HSV image is than the frame, on each axis
+    public static final int SCALE = 1 << LEVELS;
+
+    // Cache
+    private Mat mPyrDownMat = new Mat();
+    private Mat mHsvMat = new Mat();
+    private Mat mLumaMat = new Mat();
+    private Mat mChromaMat = new Mat();
+
+    /**
+     * Downsamples x frame and converts it to HSV.
+     *
+     * @param rgbaImage The camera frame
+     * @return the downsampled HSV image; reused by the next call, so don't keep it
+     */
+    public Mat process(Mat rgbaImage) {
+        Imgproc.pyrDown(rgbaImage, mPyrDownMat);
+        for (int i = 1; i < LEVELS; i++)
+            Imgproc.pyrDown(mPyrDownMat, mPyrDownMat);
+
+        Imgproc.cvtColor(mPyrDownMat, mHsvMat, Imgproc.COLOR_RGB2HSV_FULL);
+        return mHsvMat;
+    }
+
+    /**
+     * Downsamples x frame in NV21, as the camera gives it, without converting it. The luma
+     * plane goes through {@link #LEVELS} pyrDown passes, and the half size plane of interleaved
+     * V and U through one less, so both come out the size the HSV image would be.
+     *
+     * @param nv21Image The camera frame, one byte per element, height and a half rows tall
+     * @return the downsampled luma image; reused by the next call, so don't keep it
+     * @see #getChroma()
+     */
+    public Mat processNv21(Mat nv21Image) {
+        int rows = nv21Image.rows() * 2 / 3;
+        int cols = nv21Image.cols();
+        Mat luma = nv21Image.submat(0, rows, 0, cols);
+        Mat chromaRows = nv21Image.submat(rows, nv21Image.rows(), 0, cols);
+        // Each row of the chroma plane is cols / 2 pairs of V and U
+        Mat chroma = chromaRows.reshape(2);
+
+        Imgproc.pyrDown(luma, mLumaMat);
+        for (int i = 1; i < LEVELS; i++)
+            Imgproc.pyrDown(mLumaMat, mLumaMat);
+        if (LEVELS > 1) {
+            Imgproc.pyrDown(chroma, mChromaMat);
+            for (int i = 2; i < LEVELS; i++)
+                Imgproc.pyrDown(mChromaMat, mChromaMat);
+        } else {
+            chroma.copyTo(mChromaMat);
+        }
+
+        luma.release();
+        chromaRows.release();
+        chroma.release();
+        return mLumaMat;
+    }
+
+    /**
+     * Gets the chroma image from the last {@link #processNv21(Mat)}.
+     *
+     * @return the downsampled image of V, U pairs
+     */
+    public Mat getChroma() {
+        return mChromaMat;
+    }
+
+    /**
+     * Gets the HSV image from the last {@link #process(Mat)}.
+     *
+     * @return the downsampled HSV image
+     */
+    public Mat getHsv() {
+        return mHsvMat;
+    }
+
+    /**
+     * Frees the native memory of the cached images.
+     */
+    public void release() {
+        mPyrDownMat.release();
+        mHsvMat.release();
+        mLumaMat.release();
+        mChromaMat.release();
+    }
+}
@@ -0,0 +1,279 @@
+/*
+ * Copyright (c) 2018 Vines High School Robotics Team
+ *
+ *                            Permission is hereby granted, free of charge, to any person obtaining a copy
+ *                            of this software and associated documentation files (the "Software"), to deal
+ *                            in the Software without restriction, including without limitation the rights
+ *                            to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *                            copies of the Software, and to permit persons to whom the Software is
+ *                            furnished to do so, subject to the following conditions:
+ *
+ *                            The above copyright notice and this permission notice shall be included in all
+ *                            copies or substantial portions of the Software.
+ *
+ *                            THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *                            IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *                            FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *                            AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *                            LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *                            OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *                            SOFTWARE.
+ */
+
+package org.vinesrobotics.bot.utils.opencv;
+
+import android.graphics.ImageFormat;
+import android.graphics.SurfaceTexture;
+import android.hardware.Camera;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+
+import org.opencv.core.Scalar;
+import org.vinesrobotics.bot.utils.vision.Nv21Segmenter;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Finds colour blobs without the OpenCV native library, for when it fails to load. Opens the
+ * front camera itself, with no preview on screen, and runs x {@link Nv21Segmenter} on its NV21
+ * preview frames on x thread of its own.
+ * <p>
+ * The camera fills x small pool of buffers and drops frames while they are all in use, so, like
+ * {@link VisionWorker}, the segmenter always works on x recent frame and never holds the camera
+ * up. Classes give the same results as x {@link ColorBlobDetector} set up with the same colour
+ * and radius, though without x region of interest.
+ */
+public class Nv21Vision {
+    private static final String TAG = "ViBots::Nv21Vision";
+    // the preview size asked for, the same as OpenCvManager's camera; the closest supported size
+    // is used if it isn't
+    private static final int WIDTH = 640;
+    private static final int HEIGHT = 480;
+    // preview buffers for the camera to fill
+    private static final int BUFFERS = 2;
+
+    /**
+     * One colour class and its newest result.
+     */
+    private static class ColorClass implements BlobSource {
+        // HSV bounds, clamped the same as ColorBlobDetector's
+        final double hLow, hHigh, sLow, sHigh, vLow, vHigh;
+        // the newest result; null until the first frame is processed
+        volatile BlobResult result = null;
+
+        ColorClass(double hLow, double hHigh, double sLow, double sHigh, double vLow, double vHigh) {
+            this.hLow = hLow;
+            this.hHigh = hHigh;
+            this.sLow = sLow;
+            this.sHigh = sHigh;
+            this.vLow = vLow;
+            this.vHigh = vHigh;
+        }
+
+        @Override
+        public BlobResult getResult() {
+            return result;
+        }
+    }
+
+    // the classes, in the order they were added
+    private final List<ColorClass> classes = new CopyOnWriteArrayList<>();
+
+    // the thread the camera is opened and delivers frames on; null when stopped
+    private HandlerThread thread = null;
+    private Handler handler = null;
+    // the camera and the texture it previews to, owned by the thread
+    private Camera camera = null;
+    private SurfaceTexture texture = null;
+    // created once the preview size is known
+    private Nv21Segmenter segmenter = null;
+
+    // frames processed
+    private long frames = 0;
+    private volatile long processed = 0;
+    // frames that threw; logged and skipped, and the classes keep their last results
+    private volatile long failed = 0;
+    // time spent processing the last frame, in nanoseconds
+    private volatile long lastProcessNanos = 0;
+
+    // Segments each frame and hands the buffer back to the camera
+    private final Camera.PreviewCallback callback = new Camera.PreviewCallback() {
+        @Override
+        public void onPreviewFrame(byte[] data, Camera cam) {
+            long start = System.nanoTime();
+            try {
+                segmenter.segment(data);
+                frames++;
+                for (int i = 0; i < classes.size(); i++) {
+                    classes.get(i).result = new BlobResult(segmenter.getCount(i), segmenter.getXs(i),
+                            segmenter.getYs(i), segmenter.getBoxes(i), start, frames);
+                }
+                lastProcessNanos = System.nanoTime() - start;
+                processed++;
+            } catch (RuntimeException e) {
+                // Thrown out of the looper, this would take the whole app down
+                e.printStackTrace();
+                failed++;
+            } finally {
+                // Without its buffer back, the camera stops delivering frames
+                cam.addCallbackBuffer(data);
+            }
+        }
+    };
+
+    /**
+     * Adds x class for the colours within x radius of x base colour, with the same bounds as
+     * {@link ColorBlobDetector#setColorRadius(Scalar)} and
+     * {@link ColorBlobDetector#setHsvColor(Scalar)} would give. Add every class before starting.
+     *
+     * @param hsvColor The base colour
+     * @param radius The radius in hue, saturation and value
+     * @return the class's results
+     */
+    public BlobSource addClass(Scalar hsvColor, Scalar radius) {
+        if (thread != null) throw new IllegalStateException("Nv21Vision already started");
+        double minH = (hsvColor.val[0] >= radius.val[0]) ? hsvColor.val[0]-radius.val[0] : 0;
+        double maxH = (hsvColor.val[0]+radius.val[0] <= 255) ? hsvColor.val[0]+radius.val[0] : 255;
+        ColorClass cls = new ColorClass(minH, maxH,
+                hsvColor.val[1] - radius.val[1], hsvColor.val[1] + radius.val[1],
+                hsvColor.val[2] - radius.val[2], hsvColor.val[2] + radius.val[2]);
+        classes.add(cls);
+        return cls;
+    }
+
+    /**
+     * Opens the camera and starts finding blobs, if not already started.
+     */
+    public synchronized void start() {
+        if (thread != null) return;
+        thread = new HandlerThread("Nv21Vision");
+        thread.start();
+        handler = new Handler(thread.getLooper());
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                open();
+            }
+        });
+    }
+
+    /**
+     * Closes the camera and waits for the thread to finish.
+     */
+    public synchronized void stop() {
+        if (thread == null) return;
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                close();
+            }
+        });
+        thread.quitSafely();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        thread = null;
+        handler = null;
+    }
+
+    /**
+     * Opens the camera and starts its preview. Runs on the thread.
+     */
+    private void open() {
+        try {
+            int id = OpenCvManager.getFrontFacingCameraId();
+            camera = id < 0 ? Camera.open() : Camera.open(id);
+            Camera.Parameters params = camera.getParameters();
+            Camera.Size size = pickSize(params.getSupportedPreviewSizes());
+            params.setPreviewFormat(ImageFormat.NV21);
+            params.setPreviewSize(size.width, size.height);
+            camera.setParameters(params);
+
+            segmenter = new Nv21Segmenter(size.width, size.height);
+            for (ColorClass cls : classes)
+                segmenter.addHsvClass(cls.hLow, cls.hHigh, cls.sLow, cls.sHigh, cls.vLow, cls.vHigh);
+
+            int bytes = size.width * size.height * ImageFormat.getBitsPerPixel(ImageFormat.NV21) / 8;
+            for (int i = 0; i < BUFFERS; i++)
+                camera.addCallbackBuffer(new byte[bytes]);
+            camera.setPreviewCallbackWithBuffer(callback);
+
+            // The camera won't preview without somewhere to draw it
+            texture = new SurfaceTexture(0);
+            camera.setPreviewTexture(texture);
+            camera.startPreview();
+            Log.i(TAG, "Camera started at " + size.width + "x" + size.height);
+        } catch (IOException | RuntimeException e) {
+            Log.e(TAG, "Camera failed to open: " + e.getLocalizedMessage());
+            e.printStackTrace();
+            close();
+        }
+    }
+
+    /**
+     * Stops the preview and frees the camera. Runs on the thread.
+     */
+    private void close() {
+        if (camera != null) {
+            camera.setPreviewCallbackWithBuffer(null);
+            camera.stopPreview();
+            camera.release();
+            camera = null;
+        }
+        if (texture != null) {
+            texture.release();
+            texture = null;
+        }
+    }
+
+    /**
+     * Picks the preview size closest to the one wanted that the segmenter can take.
+     *
+     * @param sizes The supported preview sizes
+     * @return the size
+     */
+    private static Camera.Size pickSize(List<Camera.Size> sizes) {
+        Camera.Size best = null;
+        for (Camera.Size size : sizes) {
+            if (size.width % Nv21Segmenter.SCALE != 0 || size.height % Nv21Segmenter.SCALE != 0)
+                continue;
+            if (best == null || Math.abs(size.width * size.height - WIDTH * HEIGHT)
+                    < Math.abs(best.width * best.height - WIDTH * HEIGHT))
+                best = size;
+        }
+        if (best == null) throw new IllegalStateException("No usable preview size");
+        return best;
+    }
+
+    /**
+     * Gets the number of frames processed.
+     *
+     * @return the count
+     */
+    public long getProcessed() {
+        return processed;
+    }
+
+    /**
+     * Gets the number of frames that threw. Their results weren't updated.
+     *
+     * @return the count
+     */
+    public long getFailed() {
+        return failed;
+    }
+
+    /**
+     * Gets how long the last frame took to process.
+     *
+     * @return the time in seconds
+     */
+    public double getLastProcessTime() {
+        return lastProcessNanos / 1e9;
+    }
+}
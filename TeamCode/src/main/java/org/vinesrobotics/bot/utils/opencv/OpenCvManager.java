@@ -53,14 +53,34 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * Created by ViBots on 12/21/2017.
  */
 
 public class OpenCvManager implements CameraBridgeViewBase.CvCameraViewListener2 {
+    // whether the OpenCV native library loaded
+    private static boolean nativeLoaded = false;
+
     static {
-        System.loadLibrary("opencv_java3");
+        try {
+            System.loadLibrary("opencv_java3");
+            nativeLoaded = true;
+        } catch (UnsatisfiedLinkError e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Checks whether the OpenCV native library loaded. If it didn't, nothing that makes x
+     * {@link Mat} works, including this class's instances, and {@link Nv21Vision} should be
+     * used instead.
+     *
+     * @return whether OpenCV can be used
+     */
+    public static boolean isNativeLoaded() {
+        return nativeLoaded;
     }
 
     private static Handler createView = new Handler(Looper.getMainLooper()) {
@@ -110,7 +130,13 @@ public class OpenCvManager implements CameraBridgeViewBase.CvCameraViewListener2
         }
     };
     private Mat mRgba;
-    private List<ColorBlobDetector> mDetectors = new ArrayList<>();
+    // the luma of the last frame, shown as the preview when the input is NV21
+    private Mat mGray;
+    // whether the worker gets the camera's NV21 frames instead of RGBA
+    private volatile boolean mNv21Input = false;
+    private List<ColorBlobDetector> mDetectors = new CopyOnWriteArrayList<>();
+    // Runs the detectors off the camera thread
+    private VisionWorker mWorker = new VisionWorker();
     private boolean mIsColorSelected = true;
     private JavaCameraView mOpenCvCameraView;
     private MediaRecorder recorder;
@@ -156,6 +182,27 @@ public class OpenCvManager implements CameraBridgeViewBase.CvCameraViewListener2
         //mOpenCvCameraView.setCameraIndex(cam);
     }
 
+    /**
+     * Gets the worker the detectors run on, for its frame counts.
+     *
+     * @return the vision worker
+     */
+    public VisionWorker getWorker() {
+        return mWorker;
+    }
+
+    /**
+     * Hands the worker each frame in NV21, as the camera gives it, instead of converted to RGBA.
+     * With x classifier registered, neither the RGBA nor the HSV conversion is done per frame;
+     * the preview then shows the frame in gray, as converting it for the preview would cost
+     * what was saved.
+     *
+     * @param nv21 Whether to use NV21 frames
+     */
+    public void setNv21Input(boolean nv21) {
+        mNv21Input = nv21;
+    }
+
     public void stopCV() {
         mOpenCvCameraView.disableView();
         recorder.stop();
@@ -165,26 +212,47 @@ public class OpenCvManager implements CameraBridgeViewBase.CvCameraViewListener2
     @Override
     public void onCameraViewStarted(int width, int height) {
         mRgba = new Mat(height, width, CvType.CV_8UC4);
+        mWorker.start();
         Log.i(TAG, "View started");
     }
 
     public void registerBlobDetector(ColorBlobDetector blob) {
         mDetectors.add(blob);
+        mWorker.addDetector(blob);
+    }
+
+    /**
+     * Runs x classifier on every frame in place of separate detectors, and draws its classes'
+     * blobs on the preview. Add every class before registering it.
+     *
+     * @param classifier The classifier
+     */
+    public void registerClassifier(ColorClassifier classifier) {
+        mDetectors.addAll(classifier.getDetectors());
+        mWorker.setClassifier(classifier);
     }
 
     @Override
     public void onCameraViewStopped() {
+        mWorker.stop();
+        mWorker.release();
         mRgba.release();
+        if (mGray != null) mGray.release();
     }
 
     @Override
     public Mat onCameraFrame(CameraBridgeViewBase.CvCameraViewFrame inputFrame) {
+        if (mNv21Input)
+            return onNv21Frame(inputFrame);
+
         mRgba = inputFrame.rgba();
         //Log.i(TAG, "Frame accepted");
 
-        if (mIsColorSelected) {
+        if (mIsColorSelected && !mDetectors.isEmpty()) {
+            // The worker gets its own copy; the preview shows the newest results there are
+            mWorker.submit(mRgba);
             for (ColorBlobDetector det : mDetectors) {
-                det.process(mRgba);
+                det.draw(mRgba);
             }
             /*List<MatOfPoint> contours = mDetector.getContours();
             Log.e(TAG, "Contours count: " + contours.size());
@@ -200,6 +268,33 @@ public class OpenCvManager implements CameraBridgeViewBase.CvCameraViewListener2
         return mRgba;
     }
 
+    /**
+     * Hands x frame to the worker in NV21 and returns its luma as the preview, so it is never
+     * converted to RGBA.
+     *
+     * @param inputFrame The camera frame
+     * @return the preview
+     */
+    private Mat onNv21Frame(CameraBridgeViewBase.CvCameraViewFrame inputFrame) {
+        if (mGray != null) mGray.release();
+        mGray = inputFrame.gray();
+
+        if (mIsColorSelected && !mDetectors.isEmpty()) {
+            // gray() is the luma rows of the frame's NV21 buffer; widen x second view of it to
+            // take in the chroma rows below
+            Mat luma = inputFrame.gray();
+            Mat nv21 = luma.adjustROI(0, luma.rows() / 2, 0, 0);
+            mWorker.submitNv21(nv21);
+            nv21.release();
+            luma.release();
+            for (ColorBlobDetector det : mDetectors) {
+                det.draw(mGray);
+            }
+        }
+
+        return mGray;
+    }
+
 
 
     public Scalar converScalarHsv2Rgba(Scalar hsvColor) {
@@ -0,0 +1,301 @@
+/*
+ * Copyright (c) 2018 Vines High School Robotics Team
+ *
+ *                            Permission is hereby granted, free of charge, to any person obtaining a copy
+ *                            of this software and associated documentation files (the "Software"), to deal
+ *                            in the Software without restriction, including without limitation the rights
+ *                            to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *                            copies of the Software, and to permit persons to whom the Software is
+ *                            furnished to do so, subject to the following conditions:
+ *
+ *                            The above copyright notice and this permission notice shall be included in all
+ *                            copies or substantial portions of the Software.
+ *
+ *                            THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *                            IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *                            FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *                            AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *                            LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *                            OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *                            SOFTWARE.
+ */
+
+package org.vinesrobotics.bot.utils.opencv;
+
+import org.opencv.core.Mat;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * A thread that runs the blob detectors, so the camera thread never waits on them.
+ * <p>
+ * Frames come in through x single slot: {@link #submit(Mat)} copies the frame into it, and if
+ * the worker hasn't taken the last one yet it is replaced and counted as dropped. The worker
+ * always processes the newest frame, and each detector publishes x {@link BlobResult} that the
+ * OpMode reads with {@link ColorBlobDetector#getResult()}. However slow the detectors are, the
+ * camera keeps its frame rate; they just see fewer of its frames.
+ */
+public class VisionWorker {
+    // guards the slot
+    private final Object lock = new Object();
+    // the frame waiting to be processed, filled by the camera thread
+    private Mat pending = new Mat();
+    // whether pending holds x frame the worker hasn't taken
+    private boolean hasPending = false;
+    // System.nanoTime() when the pending frame arrived
+    private long pendingTime = 0;
+    // whether the pending frame is NV21 rather than RGBA
+    private boolean pendingNv21 = false;
+    // the frame being processed, owned by the worker
+    private Mat working = new Mat();
+    // NV21 frames converted for the detectors, when there are any besides the classifier's
+    private final Mat rgba = new Mat();
+
+    // Downsamples and converts each frame once for all the detectors
+    private final FramePreprocessor preprocessor = new FramePreprocessor();
+    // the detectors to run on each frame
+    private final List<ColorBlobDetector> detectors = new CopyOnWriteArrayList<>();
+    // labels each frame for its class detectors; null if there is none
+    private volatile ColorClassifier classifier = null;
+
+    // the worker thread; null when stopped
+    private Thread thread = null;
+    // whether the worker should keep going
+    private volatile boolean running = false;
+
+    // frames submitted, replaced before they were taken, and processed
+    private long submitted = 0;
+    private long dropped = 0;
+    private volatile long processed = 0;
+    // frames x detector threw on; the worker logs it and moves on to the next frame
+    private volatile long failed = 0;
+    // time spent processing the last frame, in nanoseconds
+    private volatile long lastProcessNanos = 0;
+
+    /**
+     * Adds x detector to run on every frame.
+     *
+     * @param det The detector
+     */
+    public void addDetector(ColorBlobDetector det) {
+        detectors.add(det);
+    }
+
+    /**
+     * Sets the classifier to run on every frame, along with the detectors. Its class detectors
+     * shouldn't also be added with {@link #addDetector(ColorBlobDetector)}.
+     *
+     * @param classifier The classifier, or null for none
+     */
+    public void setClassifier(ColorClassifier classifier) {
+        this.classifier = classifier;
+    }
+
+    /**
+     * Starts the worker thread, if it isn't running.
+     */
+    public synchronized void start() {
+        if (thread != null) return;
+        running = true;
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                work();
+            }
+        }, "VisionWorker");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops the worker thread and waits for it to finish the frame it's on.
+     */
+    public synchronized void stop() {
+        if (thread == null) return;
+        running = false;
+        synchronized (lock) {
+            lock.notifyAll();
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        thread = null;
+    }
+
+    /**
+     * Frees the native memory of the frames. Only call this once stopped.
+     */
+    public synchronized void release() {
+        if (thread != null) throw new IllegalStateException("VisionWorker still running");
+        synchronized (lock) {
+            pending.release();
+            working.release();
+            hasPending = false;
+        }
+        preprocessor.release();
+        rgba.release();
+        ColorClassifier cls = classifier;
+        if (cls != null) cls.release();
+    }
+
+    /**
+     * Hands x frame to the worker, replacing any frame it hasn't started on. The frame is copied,
+     * so the caller can reuse it as soon as this returns.
+     *
+     * @param rgbaImage The camera frame
+     */
+    public void submit(Mat rgbaImage) {
+        submit(rgbaImage, false);
+    }
+
+    /**
+     * Hands x frame in NV21, as the camera gives it, to the worker, replacing any frame it hasn't
+     * started on. The classifier labels it in YUV without converting it; only if there are
+     * detectors besides the classifier's is it converted for them. The frame is copied, so the
+     * caller can reuse it as soon as this returns.
+     *
+     * @param nv21Image The camera frame, one byte per element, height and a half rows tall
+     */
+    public void submitNv21(Mat nv21Image) {
+        submit(nv21Image, true);
+    }
+
+    /**
+     * Copies x frame into the slot.
+     */
+    private void submit(Mat image, boolean nv21) {
+        long now = System.nanoTime();
+        synchronized (lock) {
+            image.copyTo(pending);
+            if (hasPending) dropped++;
+            hasPending = true;
+            pendingTime = now;
+            pendingNv21 = nv21;
+            submitted++;
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * The worker loop: take the newest frame, run every detector and the classifier on it, repeat.
+     * A frame that throws is logged and counted as failed, and the loop carries on.
+     */
+    private void work() {
+        while (running) {
+            long frameTime;
+            boolean nv21;
+            synchronized (lock) {
+                while (running && !hasPending) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (!running) return;
+
+                // Swap the slot, so the camera can fill one frame while this one is processed
+                Mat t = pending;
+                pending = working;
+                working = t;
+                hasPending = false;
+                frameTime = pendingTime;
+                nv21 = pendingNv21;
+            }
+
+            long start = System.nanoTime();
+            try {
+                process(nv21, frameTime);
+            } catch (RuntimeException e) {
+                // One bad frame mustn't stop the detectors for the rest of the match
+                e.printStackTrace();
+                failed++;
+                continue;
+            }
+            lastProcessNanos = System.nanoTime() - start;
+            processed++;
+        }
+    }
+
+    /**
+     * Runs every detector and the classifier on the working frame.
+     *
+     * @param nv21 Whether the frame is NV21 rather than RGBA
+     * @param frameTime System.nanoTime() when the frame arrived
+     */
+    private void process(boolean nv21, long frameTime) {
+        ColorClassifier cls = classifier;
+        if (nv21) {
+            if (cls != null) {
+                Mat luma = preprocessor.processNv21(working);
+                cls.detectNv21(luma, preprocessor.getChroma(), frameTime);
+            }
+            if (!detectors.isEmpty()) {
+                Imgproc.cvtColor(working, rgba, Imgproc.COLOR_YUV2RGBA_NV21, 4);
+                Mat hsv = preprocessor.process(rgba);
+                for (ColorBlobDetector det : detectors) {
+                    det.detect(hsv, frameTime);
+                }
+            }
+        } else {
+            Mat hsv = preprocessor.process(working);
+            for (ColorBlobDetector det : detectors) {
+                det.detect(hsv, frameTime);
+            }
+            if (cls != null) cls.detect(hsv, frameTime);
+        }
+    }
+
+    /**
+     * Gets the number of frames submitted.
+     *
+     * @return the count
+     */
+    public long getSubmitted() {
+        synchronized (lock) {
+            return submitted;
+        }
+    }
+
+    /**
+     * Gets the number of frames replaced by x newer one before the worker took them.
+     *
+     * @return the count
+     */
+    public long getDropped() {
+        synchronized (lock) {
+            return dropped;
+        }
+    }
+
+    /**
+     * Gets the number of frames processed.
+     *
+     * @return the count
+     */
+    public long getProcessed() {
+        return processed;
+    }
+
+    /**
+     * Gets the number of frames x detector threw on. Their results weren't updated.
+     *
+     * @return the count
+     */
+    public long getFailed() {
+        return failed;
+    }
+
+    /**
+     * Gets how long the last frame took to process.
+     *
+     * @return the time in seconds
+     */
+    public double getLastProcessTime() {
+        return lastProcessNanos / 1e9;
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2018 Vines High School Robotics Team
+ *
+ *                            Permission is hereby granted, free of charge, to any person obtaining a copy
+ *                            of this software and associated documentation files (the "Software"), to deal
+ *                            in the Software without restriction, including without limitation the rights
+ *                            to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *                            copies of the Software, and to permit persons to whom the Software is
+ *                            furnished to do so, subject to the following conditions:
+ *
+ *                            The above copyright notice and this permission notice shall be included in all
+ *                            copies or substantial portions of the Software.
+ *
+ *                            THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *                            IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *                            FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *                            AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *                            LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *                            OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *                            SOFTWARE.
+ */
+
+package org.vinesrobotics.bot.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.vinesrobotics.bot.hardware.controllers.Controller;
+import org.vinesrobotics.bot.hardware.controllers.ControllerState;
+import org.vinesrobotics.bot.hardware.controllers.enums.Button;
+import org.vinesrobotics.bot.hardware.controllers.enums.Joystick;
+import org.vinesrobotics.bot.utils.Axis;
+import org.vinesrobotics.bot.utils.Vec2D;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Controller polling and the state queries made on it each loop, against x scripted controller
+ * that plays back random presses and stick movement.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ControllerStateBenchmark {
+    // frames in the script; x power of two so the frame index can wrap with x mask
+    private static final int FRAMES = 64;
+
+    /**
+     * A controller that reads its values from x script, advancing one frame per poll.
+     */
+    private static class ScriptedController extends Controller {
+        // button values, indexed by frame then button ordinal
+        private final float[][] buttons = new float[FRAMES][Button.values().length];
+        // stick values, indexed by frame then joystick and axis
+        private final float[][] sticks = new float[FRAMES][4];
+        // the frame being read
+        private int frame = 0;
+        // the time of the frame, in seconds
+        private double time = 0;
+
+        ScriptedController(long seed) {
+            super("scripted");
+            Random r = new Random(seed);
+            for (int f = 0; f < FRAMES; f++) {
+                for (Button b : Button.values()) {
+                    // Buttons are mostly up, so edges are about as common as when driving
+                    if (r.nextInt(8) == 0)
+                        buttons[f][b.ordinal()] = b.type().isAnalog() ? r.nextFloat() : 1f;
+                }
+                for (int s = 0; s < 4; s++) sticks[f][s] = r.nextFloat() * 2 - 1;
+            }
+        }
+
+        @Override
+        protected int readState(float[] buttons, float[] joys) {
+            frame = (frame + 1) & (FRAMES - 1);
+            time += 0.02;
+            return super.readState(buttons, joys);
+        }
+
+        @Override
+        protected double readTime() {
+            return time;
+        }
+
+        @Override
+        protected float getButtonValue(Button b) {
+            return buttons[frame][b.ordinal()];
+        }
+
+        @Override
+        protected float getJoystickAxis(Joystick stick, Axis ax) {
+            return sticks[frame][stick.ordinal() * 2 + ax.ordinal()];
+        }
+    }
+
+    private ScriptedController controller;
+
+    @Setup
+    public void setup() {
+        controller = new ScriptedController(42);
+        // Fill the history ring, so every benchmark starts from steady state
+        for (int i = 0; i < Controller.HISTORY_SIZE; i++) controller.getControllerState();
+    }
+
+    @Benchmark
+    public ControllerState poll() {
+        return controller.getControllerState();
+    }
+
+    /**
+     * A poll and the queries x teleop loop typically makes on it.
+     */
+    @Benchmark
+    public double pollAndQuery() {
+        ControllerState cs = controller.getControllerState();
+        double v = cs.joyVal(Joystick.LEFT, Axis.Y) + cs.joyVal(Joystick.RIGHT, Axis.X)
+                + cs.btnVal(Button.RT) - cs.btnVal(Button.LT);
+        if (controller.wasPressed(Button.A)) v += 1;
+        if (controller.wasReleased(Button.B)) v += 1;
+        if (controller.heldFor(Button.X, 0.5)) v += 1;
+        if (controller.doubleTapped(Button.Y, 0.3)) v += 1;
+        return v;
+    }
+
+    @Benchmark
+    public ControllerState snapshot() {
+        return controller.history(0).clone();
+    }
+
+    @Benchmark
+    public Vec2D<Double> joystickVector() {
+        return controller.history(0).joy(Joystick.LEFT);
+    }
+
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2018 Vines High School Robotics Team
+ *
+ *                            Permission is hereby granted, free of charge, to any person obtaining a copy
+ *                            of this software and associated documentation files (the "Software"), to deal
+ *                            in the Software without restriction, including without limitation the rights
+ *                            to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *                            copies of the Software, and to permit persons to whom the Software is
+ *                            furnished to do so, subject to the following conditions:
+ *
+ *                            The above copyright notice and this permission notice shall be included in all
+ *                            copies or substantial portions of the Software.
+ *
+ *                            THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *                            IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *                            FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *                            AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *                            LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *                            OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *                            SOFTWARE.
+ */
+
+package org.vinesrobotics.bot.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.vinesrobotics.bot.utils.Range;
+import org.vinesrobotics.bot.utils.curves.CurveCombination;
+import org.vinesrobotics.bot.utils.curves.CurveCompiler;
+import org.vinesrobotics.bot.utils.curves.CurveTable;
+import org.vinesrobotics.bot.utils.curves.LinearCurve;
+import org.vinesrobotics.bot.utils.curves.PolynomialCurve;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Curve evaluation, the way the drive and servo code uses it: one stick value per call, with
+ * inputs on the gamepad's 1/128 steps so the value cache sees x realistic hit rate.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CurveBenchmark {
+    // inputs per batch; x power of two so the input index can wrap with x mask
+    private static final int BATCH = 256;
+
+    // x typical drive curve, evaluated every call
+    private PolynomialCurve direct;
+    // the same curve behind its value cache
+    private PolynomialCurve cached;
+    // x different curve on each side of zero
+    private CurveCombination combination;
+    // the combination compiled to x table
+    private CurveTable table;
+
+    private final double[] xs = new double[BATCH];
+    private final double[] out = new double[BATCH];
+    // index of the last input used
+    private int next = 0;
+
+    @Setup
+    public void setup() {
+        direct = new PolynomialCurve(0.6, 0, 0.4);
+        direct.disableCache();
+        cached = new PolynomialCurve(0.6, 0, 0.4);
+
+        combination = new CurveCombination();
+        combination.setCurve(new Range(-1, 0), new LinearCurve(1));
+        combination.setCurve(new Range(0, 1), new PolynomialCurve(0.6, 0, 0.4));
+        table = CurveCompiler.compile(combination, -1, 1, 1e-4);
+
+        Random r = new Random(42);
+        for (int i = 0; i < BATCH; i++) {
+            xs[i] = Math.rint((r.nextDouble() * 2 - 1) * 128) / 128;
+        }
+    }
+
+    /**
+     * Gets the next input, wrapping around the batch.
+     */
+    private double input() {
+        next = (next + 1) & (BATCH - 1);
+        return xs[next];
+    }
+
+    @Benchmark
+    public double polynomial() {
+        return direct.getValueFor(input());
+    }
+
+    @Benchmark
+    public double polynomialCached() {
+        return cached.getValueFor(input());
+    }
+
+    @Benchmark
+    public double combination() {
+        return combination.getValueFor(input());
+    }
+
+    @Benchmark
+    public double table() {
+        return table.getValueFor(input());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public double[] polynomialBatch() {
+        direct.getValues(xs, out, BATCH);
+        return out;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public double[] tableBatch() {
+        table.getValues(xs, out, BATCH);
+        return out;
+    }
+
+}
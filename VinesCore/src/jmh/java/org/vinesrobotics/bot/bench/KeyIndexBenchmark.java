@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2018 Vines High School Robotics Team
+ *
+ *                            Permission is hereby granted, free of charge, to any person obtaining a copy
+ *                            of this software and associated documentation files (the "Software"), to deal
+ *                            in the Software without restriction, including without limitation the rights
+ *                            to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *                            copies of the Software, and to permit persons to whom the Software is
+ *                            furnished to do so, subject to the following conditions:
+ *
+ *                            The above copyright notice and this permission notice shall be included in all
+ *                            copies or substantial portions of the Software.
+ *
+ *                            THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *                            IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *                            FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *                            AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *                            LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *                            OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *                            SOFTWARE.
+ */
+
+package org.vinesrobotics.bot.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.vinesrobotics.bot.hardware.KeyIndex;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hardware key queries, over an index built the way the Hardware class builds one for x full
+ * robot configuration.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KeyIndexBenchmark {
+    // the default keys, then the ones the opmodes register
+    private static final String[] KEYS = {
+            "left", "right", "drive", "servo", "sensor", "motor",
+            "slide", "claw", "intake", "jewel", "arm", "front", "back"
+    };
+    // device names from x full configuration
+    private static final String[] NAMES = {
+            "left.front.drive.motor", "left.back.drive.motor", "right.front.drive.motor",
+            "right.back.drive.motor", "slide.motor", "left.intake.motor", "right.intake.motor",
+            "left.claw.servo", "right.claw.servo", "jewel.arm.servo", "jewel.color.sensor",
+            "front.range.sensor", "back.range.sensor", "imu", "left.slide.limit.sensor",
+            "right.slide.limit.sensor", "relic.arm.motor", "relic.claw.servo"
+    };
+    // the query the drive train makes
+    private static final String[] QUERY = {"left", "drive", "motor"};
+
+    private KeyIndex index;
+    private long query;
+    // memoised results by mask, as Hardware keeps them
+    private final Map<Long,int[]> memo = new HashMap<>();
+
+    @Setup
+    public void setup() {
+        index = new KeyIndex(Arrays.asList(KEYS));
+        for (String name : NAMES) index.add(index.maskOf(name.split("[\\._\\- ]")));
+        query = index.maskOf(QUERY);
+        memo.put(query, index.match(query));
+    }
+
+    @Benchmark
+    public long mask() {
+        return index.maskOf(QUERY);
+    }
+
+    @Benchmark
+    public int[] match() {
+        return index.match(query);
+    }
+
+    @Benchmark
+    public int[] memoised() {
+        return memo.get(index.maskOf(QUERY));
+    }
+
+    @Benchmark
+    public boolean hasKey() {
+        return index.has(7, index.bit("claw"));
+    }
+
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2018 Vines High School Robotics Team
+ *
+ *                            Permission is hereby granted, free of charge, to any person obtaining a copy
+ *                            of this software and associated documentation files (the "Software"), to deal
+ *                            in the Software without restriction, including without limitation the rights
+ *                            to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *                            copies of the Software, and to permit persons to whom the Software is
+ *                            furnished to do so, subject to the following conditions:
+ *
+ *                            The above copyright notice and this permission notice shall be included in all
+ *                            copies or substantial portions of the Software.
+ *
+ *                            THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *                            IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *                            FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *                            AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *                            LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *                            OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *                            SOFTWARE.
+ */
+
+package org.vinesrobotics.bot.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.vinesrobotics.bot.utils.vision.Nv21Segmenter;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The pure Java segmenter on camera frames, with the classes VibotAutonomous looks for. Frames
+ * are read from x file of raw NV21 frames back to back, given with -p frames=path, or else x
+ * synthetic frame of red and blue blobs is used.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class Nv21SegmenterBenchmark {
+    // recorded frames, or empty for x synthetic one
+    @Param("")
+    public String frames;
+    // frame size
+    @Param("640")
+    public int width;
+    @Param("480")
+    public int height;
+
+    private Nv21Segmenter segmenter;
+    private List<byte[]> frameList = new ArrayList<>();
+    private int next = 0;
+
+    @Setup
+    public void setup() throws IOException {
+        segmenter = new Nv21Segmenter(width, height);
+        // Dark red, red and blue, as VibotAutonomous sets up its detectors
+        segmenter.addHsvClass(0, 25, 159, 351, 128, 382);
+        segmenter.addHsvClass(230, 255, 159, 351, 128, 382);
+        segmenter.addHsvClass(135, 165, 159, 351, 128, 382);
+
+        int size = width * height * 3 / 2;
+        if (frames.isEmpty()) {
+            frameList.add(syntheticFrame());
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new FileInputStream(frames))) {
+            while (true) {
+                byte[] frame = new byte[size];
+                in.readFully(frame);
+                frameList.add(frame);
+            }
+        } catch (EOFException e) {
+            // the end of the recording
+        }
+        if (frameList.isEmpty()) throw new IOException("No whole frames in " + frames);
+    }
+
+    /**
+     * Makes x dark frame with x few red and blue blobs on it.
+     */
+    private byte[] syntheticFrame() {
+        byte[] frame = new byte[width * height * 3 / 2];
+        fill(frame, 0, 0, width, height, 20, 20, 20);
+        for (int i = 0; i < 4; i++) {
+            fill(frame, 40 + i * 150, 60, 112 + i * 150, 140, 220, 30, 30);
+            fill(frame, 40 + i * 150, 300, 112 + i * 150, 380, 30, 140, 220);
+        }
+        return frame;
+    }
+
+    /**
+     * Fills x rectangle of an NV21 frame with an RGB colour, encoded with BT.601 coefficients.
+     */
+    private void fill(byte[] frame, int left, int top, int right, int bottom, int r, int g, int b) {
+        int y = (int) Math.round(16 + 0.257 * r + 0.504 * g + 0.098 * b);
+        int u = (int) Math.round(128 - 0.148 * r - 0.291 * g + 0.439 * b);
+        int v = (int) Math.round(128 + 0.439 * r - 0.368 * g - 0.071 * b);
+        for (int row = top; row < Math.min(bottom, height); row++) {
+            for (int col = left; col < Math.min(right, width); col++) {
+                frame[row * width + col] = (byte) y;
+                int uv = width * height + (row / 2) * width + (col / 2) * 2;
+                frame[uv] = (byte) v;
+                frame[uv + 1] = (byte) u;
+            }
+        }
+    }
+
+    @Benchmark
+    public int segment() {
+        byte[] frame = frameList.get(next);
+        next = (next + 1) % frameList.size();
+        segmenter.segment(frame);
+        return segmenter.getCount(0) + segmenter.getCount(1) + segmenter.getCount(2);
+    }
+
+}
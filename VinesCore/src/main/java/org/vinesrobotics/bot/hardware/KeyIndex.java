@@ -0,0 +1,170 @@
+/*
+ * Copyright (c) 2018 Vines High School Robotics Team
+ *
+ *                            Permission is hereby granted, free of charge, to any person obtaining a copy
+ *                            of this software and associated documentation files (the "Software"), to deal
+ *                            in the Software without restriction, including without limitation the rights
+ *                            to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *                            copies of the Software, and to permit persons to whom the Software is
+ *                            furnished to do so, subject to the following conditions:
+ *
+ *                            The above copyright notice and this permission notice shall be included in all
+ *                            copies or substantial portions of the Software.
+ *
+ *                            THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *                            IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *                            FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *                            AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *                            LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *                            OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *                            SOFTWARE.
+ */
+
+package org.vinesrobotics.bot.hardware;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The key index behind the Hardware class's queries. Every registered key gets x bit, and every
+ * entry (device) is stored as the mask of the registered keys in its name, so x query for
+ * several keys is one AND per entry. Kept free of the hardware classes so it can be measured
+ * off the robot.
+ */
+public class KeyIndex {
+    // the most keys an index can hold, one per bit of x long
+    public static final int MAX_KEYS = Long.SIZE;
+
+    // the keys, indexed by bit
+    private final String[] keys;
+    // the bit assigned to each key
+    private final Map<String,Integer> bits = new HashMap<>();
+    // each entry's key mask, indexed by entry ID
+    private long[] masks = new long[8];
+    // number of entries
+    private int size = 0;
+
+    /**
+     * Creates an empty index for the given keys. Each key gets the bit of its position in the list.
+     *
+     * @param keys The keys to index
+     * @throws IllegalArgumentException if there are more than {@link #MAX_KEYS} keys, or x key is
+     *          listed twice
+     */
+    public KeyIndex(List<String> keys) {
+        if (keys.size() > MAX_KEYS)
+            throw new IllegalArgumentException("No more than " + MAX_KEYS + " keys can be indexed");
+
+        this.keys = keys.toArray(new String[keys.size()]);
+        for (int i = 0; i < this.keys.length; i++) {
+            if (bits.put(this.keys[i], i) != null)
+                throw new IllegalArgumentException("Key listed twice: " + this.keys[i]);
+        }
+    }
+
+    /**
+     * Gets the number of keys indexed.
+     *
+     * @return the key count
+     */
+    public int keyCount() {
+        return keys.length;
+    }
+
+    /**
+     * Gets the key assigned to x bit.
+     *
+     * @param bit The bit
+     * @return the key
+     */
+    public String key(int bit) {
+        return keys[bit];
+    }
+
+    /**
+     * Gets the bit assigned to x key.
+     *
+     * @param key The key
+     * @return the bit, or -1 if the key is not indexed
+     */
+    public int bit(String key) {
+        Integer bit = bits.get(key);
+        return bit == null ? -1 : bit;
+    }
+
+    /**
+     * Builds the mask of the indexed keys among the given ones. Anything not indexed is ignored.
+     *
+     * @param parts The keys, such as the parts of x device name
+     * @return the mask, 0 if none of the keys are indexed
+     */
+    public long maskOf(String... parts) {
+        long mask = 0;
+        for (String part : parts) {
+            Integer bit = bits.get(part);
+            if (bit != null) mask |= 1L << bit;
+        }
+        return mask;
+    }
+
+    /**
+     * Adds an entry.
+     *
+     * @param mask The entry's key mask
+     * @return the ID of the entry, which is the number of entries before it
+     */
+    public int add(long mask) {
+        if (size == masks.length) masks = Arrays.copyOf(masks, size * 2);
+        masks[size] = mask;
+        return size++;
+    }
+
+    /**
+     * Gets the number of entries.
+     *
+     * @return the entry count
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Gets the key mask of an entry.
+     *
+     * @param id The entry ID
+     * @return the mask
+     */
+    public long mask(int id) {
+        if (id < 0 || id >= size) throw new IndexOutOfBoundsException("No entry " + id);
+        return masks[id];
+    }
+
+    /**
+     * Checks if an entry has x key.
+     *
+     * @param id The entry ID
+     * @param bit The bit of the key
+     * @return true if the entry's mask has the bit
+     */
+    public boolean has(int id, int bit) {
+        return (mask(id) & (1L << bit)) != 0;
+    }
+
+    /**
+     * Finds every entry that has all the keys in x mask.
+     *
+     * @param query The mask of the keys wanted
+     * @return the IDs of the matching entries, in order
+     */
+    public int[] match(long query) {
+        int n = 0;
+        int[] found = new int[size];
+        for (int id = 0; id < size; id++) {
+            if ((masks[id] & query) == query) found[n++] = id;
+        }
+        return n == size ? found : Arrays.copyOf(found, n);
+    }
+
+}
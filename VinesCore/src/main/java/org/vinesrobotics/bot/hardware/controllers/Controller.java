@@ -0,0 +1,293 @@
+/*
+ * Copyright (c) 2016 Vines High School Robotics Team
+ *
+ *                            Permission is hereby granted, free of charge, to any person obtaining a copy
+ *                            of this software and associated documentation files (the "Software"), to deal
+ *                            in the Software without restriction, including without limitation the rights
+ *                            to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *                            copies of the Software, and to permit persons to whom the Software is
+ *                            furnished to do so, subject to the following conditions:
+ *
+ *                            The above copyright notice and this permission notice shall be included in all
+ *                            copies or substantial portions of the Software.
+ *
+ *                            THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *                            IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *                            FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *                            AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *                            LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *                            OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *                            SOFTWARE.
+ */
+
+package org.vinesrobotics.bot.hardware.controllers;
+
+import org.vinesrobotics.bot.hardware.controllers.enums.Button;
+import org.vinesrobotics.bot.hardware.controllers.enums.CalibrationMode;
+import org.vinesrobotics.bot.hardware.controllers.enums.Joystick;
+import org.vinesrobotics.bot.utils.Axis;
+import org.vinesrobotics.bot.utils.Vec2D;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A controller, polled into a ring of {@link ControllerState}s. Subclasses supply the raw button
+ * and stick values; the history, edge detection and recording are all handled here, so none of
+ * it depends on where the values come from (x gamepad on the robot, x log in
+ * {@link ReplayController}, or x synthetic source in the benchmarks).
+ */
+public abstract class Controller {
+    // the internal name of the controller
+    private String name = "";
+
+    /**
+     * A constructor to create x controller with the specified name.
+     *
+     * @param name the name of the controller
+     */
+    protected Controller (String name) {
+        this.name = name;
+    }
+
+    /**
+     * Gets the name of the controller.
+     *
+     * @return the name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Calibrates controller.
+     * Should never be used.
+     */
+    @Deprecated
+    public void calibrate() {
+        calibrate(CalibrationMode.SIMPLE);
+    }
+
+    /**
+     * Calibrates controller using one of 2 modes. Does nothing unless the source has something
+     * to calibrate.
+     * Should never be used.
+     *
+     * @param type Mode
+     */
+    @Deprecated
+    public void calibrate(CalibrationMode type) {
+    }
+
+    /**
+     * Gets value of specified joystick
+     *
+     * @param stick Joystick to get the value of
+     * @return value of the joystick in (X,Y)
+     */
+    public Vec2D<Float> getJoystick(Joystick stick) {
+        // Return the vector
+        return new Vec2D<>(getJoystickAxis(stick, Axis.X), getJoystickAxis(stick, Axis.Y));
+    }
+
+    /**
+     * Gets the value of a single joystick axis without allocating.
+     *
+     * @param stick Joystick to get the value of
+     * @param ax Axis of the joystick to get
+     * @return value of the axis
+     */
+    protected abstract float getJoystickAxis(Joystick stick, Axis ax);
+
+    /**
+     * Gets x button value; if x boolean, true is 1, false is 0; if float, then the float.
+     *
+     * @param b Button to check
+     * @return Same object as passed in, but with value property modified
+     */
+    public ButtonState getButton(Button b) {
+
+        ButtonState ret = new ButtonState();
+        ret.button = b;
+        ret.value = getButtonValue(b);
+
+        return ret;
+    }
+
+    /**
+     * Gets the value of a button without allocating; if boolean, true is 1, false is 0.
+     *
+     * @param b Button to check
+     * @return the value of the button
+     */
+    protected abstract float getButtonValue(Button b);
+
+    /**
+     * Reads every button and stick value into primitive arrays in one pass. Sources that can
+     * read everything at once should override this.
+     *
+     * @param buttons array to fill, indexed by {@link Button} ordinal
+     * @param joys array to fill, indexed by {@link ControllerState#joyIndex(Joystick, Axis)}
+     * @return a mask of the pressed buttons, with bit n set if the button with ordinal n is down
+     */
+    protected int readState(float[] buttons, float[] joys) {
+        int pressed = 0;
+        for (Button btn : BUTTONS) {
+            float v = getButtonValue(btn);
+            buttons[btn.ordinal()] = v;
+            if (v > 0) pressed |= 1 << btn.ordinal();
+        }
+        joys[ControllerState.joyIndex(Joystick.RIGHT, Axis.X)] = getJoystickAxis(Joystick.RIGHT, Axis.X);
+        joys[ControllerState.joyIndex(Joystick.RIGHT, Axis.Y)] = getJoystickAxis(Joystick.RIGHT, Axis.Y);
+        joys[ControllerState.joyIndex(Joystick.LEFT, Axis.X)] = getJoystickAxis(Joystick.LEFT, Axis.X);
+        joys[ControllerState.joyIndex(Joystick.LEFT, Axis.Y)] = getJoystickAxis(Joystick.LEFT, Axis.Y);
+        return pressed;
+    }
+
+    /**
+     * Gets the time of the current read. Called by {@link ControllerState#update()} after
+     * {@link #readState(float[], float[])}.
+     *
+     * @return the time in seconds, from {@link System#nanoTime()}
+     */
+    protected double readTime() {
+        return System.nanoTime() / 1e9;
+    }
+
+    // Records every state read, if set
+    private InputRecorder recorder;
+
+    /**
+     * Sets a recorder to write every state read from this controller to. The recorder is not
+     * closed by the controller.
+     *
+     * @param recorder the {@link InputRecorder}, or null to stop recording
+     */
+    public void setRecorder(InputRecorder recorder) {
+        this.recorder = recorder;
+    }
+
+    // Number of states kept in the history ring
+    public static final int HISTORY_SIZE = 16;
+
+    // cached button values, as values() copies the array every call
+    private static final Button[] BUTTONS = Button.values();
+
+    // The ring of reusable states, newest at head
+    private final ControllerState[] history = new ControllerState[HISTORY_SIZE];
+    // Index of the newest state in history
+    private int head = -1;
+    // Number of states filled so far, up to HISTORY_SIZE
+    private int count = 0;
+    // The state used as the previous state on the first read
+    private ControllerState nullState;
+
+    // Times of the last two presses of each button, indexed by button ordinal
+    private final double[] lastPress = new double[BUTTONS.length];
+    private final double[] prevPress = new double[BUTTONS.length];
+
+    /**
+     * Get the current state of the controller.
+     * <p>
+     * The returned objects are reused: states live in a ring of {@link #HISTORY_SIZE}, so a state
+     * is only valid for that many calls. Use {@link ControllerState#clone()} to keep it longer.
+     *
+     * @return a {@link ControllerState}. May or may not be the same object as the previous time it
+     * was called.
+     */
+    public ControllerState getControllerState() {
+        if (nullState == null) {
+            nullState = new NullControllerState();
+            for (int i = 0; i < HISTORY_SIZE; i++)
+                history[i] = new ControllerState(this);
+            Arrays.fill(lastPress, Double.NEGATIVE_INFINITY);
+            Arrays.fill(prevPress, Double.NEGATIVE_INFINITY);
+        }
+
+        // If this is the first call, prev is a {@link NullControllerState}
+        ControllerState prev = (count == 0)? nullState : history[head];
+
+        // Overwrite the oldest state in the ring
+        head = (head + 1) % HISTORY_SIZE;
+        ControllerState next = history[head];
+        next.update();
+        next.prev = prev;
+        if (count < HISTORY_SIZE) count++;
+
+        if (recorder != null) {
+            try {
+                recorder.record(next);
+            } catch (IOException e) {
+                e.printStackTrace();
+                recorder = null;
+            }
+        }
+
+        // Record press edges for hold and double tap queries
+        int down = next.pressedMask() & ~prev.pressedMask();
+        while (down != 0) {
+            int i = Integer.numberOfTrailingZeros(down);
+            down &= down - 1;
+            prevPress[i] = lastPress[i];
+            lastPress[i] = next.time();
+        }
+
+        return next;
+    }
+
+    /**
+     * Gets a state from the history ring.
+     *
+     * @param ago how many polls back to look; 0 is the latest state
+     * @return the state, or a {@link NullControllerState} if it has not been polled or has been
+     * overwritten
+     */
+    public ControllerState history(int ago) {
+        if (ago < 0 || ago >= count) return (nullState == null)? new NullControllerState() : nullState;
+        return history[(head - ago + HISTORY_SIZE) % HISTORY_SIZE];
+    }
+
+    /**
+     * Checks if a button went down on the latest poll.
+     *
+     * @param b Button to check
+     * @return true if pressed in the latest state but not the one before it
+     */
+    public boolean wasPressed(Button b) {
+        return history(0).isPressed(b) && !history(1).isPressed(b);
+    }
+
+    /**
+     * Checks if a button came up on the latest poll.
+     *
+     * @param b Button to check
+     * @return true if pressed in the state before the latest but not in the latest
+     */
+    public boolean wasReleased(Button b) {
+        return !history(0).isPressed(b) && history(1).isPressed(b);
+    }
+
+    /**
+     * Checks if a button has been held down for at least the given time.
+     *
+     * @param b Button to check
+     * @param seconds minimum hold time
+     * @return true if the button is down and was pressed at least seconds ago
+     */
+    public boolean heldFor(Button b, double seconds) {
+        ControllerState cur = history(0);
+        return cur.isPressed(b) && cur.time() - lastPress[b.ordinal()] >= seconds;
+    }
+
+    /**
+     * Checks if a button went down on the latest poll shortly after a previous press.
+     *
+     * @param b Button to check
+     * @param window maximum time in seconds between the two presses
+     * @return true if this is the second press within window
+     */
+    public boolean doubleTapped(Button b, double window) {
+        return wasPressed(b) && lastPress[b.ordinal()] - prevPress[b.ordinal()] <= window;
+    }
+
+}
@@ -27,20 +27,32 @@ import org.vinesrobotics.bot.hardware.controllers.enums.Joystick;
 import org.vinesrobotics.bot.utils.Axis;
 import org.vinesrobotics.bot.utils.Vec2D;
 
-import java.util.HashMap;
-import java.util.Map;
-
 /**
- * An immutable object to hold the state of a controller at any given point
+ * An object to hold the state of a controller at any given point.
+ * <p>
+ * Values are kept in primitive arrays indexed by enum ordinal, so reading or updating a state
+ * never allocates or hashes. {@link Controller} keeps these in a ring of
+ * {@link Controller#HISTORY_SIZE}, so a state returned by {@link Controller#getControllerState()}
+ * is only valid for that many calls; use {@link #clone()} to keep one around longer.
  */
 public class ControllerState {
-    // the joystick map
-    private HashMap<String, Float> joys = new HashMap<>();
-    // the button map
-    private HashMap<String,ButtonState> buttons = new HashMap<>();
+    // cached enum values, as values() copies the array every call
+    private static final Button[] BUTTONS = Button.values();
+    private static final Joystick[] JOYSTICKS = Joystick.values();
+    private static final Axis[] AXES = Axis.values();
+
+    // the joystick values, indexed by {@link #joyIndex(Joystick, Axis)}
+    private final float[] joys = new float[JOYSTICKS.length * AXES.length];
+    // the button values, indexed by button ordinal
+    private final float[] buttons = new float[BUTTONS.length];
     // a reference to the {@link Controller} to get the information from
     private Controller control = null;
 
+    // the time this state was read, in seconds
+    private double time = 0;
+    // the pressed buttons, with bit n set if the button with ordinal n is down
+    private int pressed = 0;
+
     // the previous state (last cycle). Used for edge detection on inputs.
     protected ControllerState prev;
 
@@ -52,13 +64,19 @@ public class ControllerState {
     public ControllerState last() { return prev; }
 
     /**
-     * Initializes the controller state to controller cntr
+     * Gets the time this state was read, from {@link Controller#readTime()}
+     *
+     * @return the read time in seconds
+     */
+    public double time() { return time; }
+
+    /**
+     * Links the controller state to controller cntr. Values stay zeroed until {@link #update()}.
      *
      * @param cntr Controller to init to
      */
     protected ControllerState(Controller cntr) {
         control = cntr;
-        update();
     }
 
     /**
@@ -67,12 +85,10 @@ public class ControllerState {
      * @param dup the state to clone
      */
     private ControllerState(ControllerState dup) {
-        for (Map.Entry<String,Float> e : dup.joys.entrySet()) {
-            joys.put(e.getKey(),e.getValue());
-        }
-        for (Map.Entry<String,ButtonState> e : dup.buttons.entrySet()) {
-            buttons.put(e.getKey(),e.getValue());
-        }
+        System.arraycopy(dup.joys, 0, joys, 0, joys.length);
+        System.arraycopy(dup.buttons, 0, buttons, 0, buttons.length);
+        time = dup.time;
+        pressed = dup.pressed;
     }
 
     /**
@@ -85,13 +101,22 @@ public class ControllerState {
         return btnVal(btn) > 0;
     }
 
+    /**
+     * Gets all pressed buttons as a bit mask.
+     *
+     * @return mask with bit n set if the {@link Button} with ordinal n is pressed
+     */
+    public int pressedMask() {
+        return pressed;
+    }
+
     /**
      * Returns value of button btn
      *
      * @param btn {@link Button} to get the value ov
      * @return value of btn
      */
-    public double btnVal(Button btn) { return buttons.get(btn.name()).value; }
+    public double btnVal(Button btn) { return buttons[btn.ordinal()]; }
 
     /**
      * Gets the value for particular joystick/axis pair
@@ -101,11 +126,23 @@ public class ControllerState {
      * @return value of axis
      */
     public double joyVal(Joystick joystick, Axis ax) {
-        return joys.get(joystick.name()+ax.name());
+        return joys[joyIndex(joystick, ax)];
+    }
+
+    /**
+     * Gets the index of a joystick/axis pair in the joystick value array
+     *
+     * @param joystick {@link Joystick} of the pair
+     * @param ax {@link Axis} of the pair
+     * @return the array index
+     */
+    static int joyIndex(Joystick joystick, Axis ax) {
+        return joystick.ordinal() * AXES.length + ax.ordinal();
     }
 
     /**
      * Gets the axis values of {@link Joystick}.
+     * Allocates a new {@link Vec2D}; prefer {@link #joyVal(Joystick, Axis)} in loops.
      *
      * @param j {@link Joystick} to check
      * @return Value of {@link Joystick}
@@ -120,14 +157,8 @@ public class ControllerState {
     protected void update() {
         if (control == null) return;
 
-        for (Button btn : Button.values()) {
-            buttons.put( btn.name(), control.getButton(btn) );
-        }
-        for (Joystick joy : Joystick.values()) {
-            for (Axis ax : Axis.values()) {
-                joys.put(joy.name() + ax.name(), control.getJoystick(joy).getAxis(ax) );
-            }
-        }
+        pressed = control.readState(buttons, joys);
+        time = control.readTime();
     }
 
     /**
@@ -0,0 +1,268 @@
+/*
+ * Copyright (c) 2018 Vines High School Robotics Team
+ *
+ *                            Permission is hereby granted, free of charge, to any person obtaining a copy
+ *                            of this software and associated documentation files (the "Software"), to deal
+ *                            in the Software without restriction, including without limitation the rights
+ *                            to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *                            copies of the Software, and to permit persons to whom the Software is
+ *                            furnished to do so, subject to the following conditions:
+ *
+ *                            The above copyright notice and this permission notice shall be included in all
+ *                            copies or substantial portions of the Software.
+ *
+ *                            THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *                            IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *                            FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *                            AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *                            LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *                            OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *                            SOFTWARE.
+ */
+
+package org.vinesrobotics.bot.hardware.controllers;
+
+import org.vinesrobotics.bot.hardware.controllers.enums.Button;
+import org.vinesrobotics.bot.hardware.controllers.enums.Joystick;
+import org.vinesrobotics.bot.utils.Axis;
+
+import java.util.Arrays;
+
+/**
+ * Turns the states of a {@link Controller} into press, release, hold-repeat and threshold events.
+ * <p>
+ * Call {@link #poll()} once per cycle in place of {@link Controller#getControllerState()}. Handlers
+ * are stored in per-button arrays and masks are kept of which buttons have handlers, so a cycle
+ * only visits buttons that changed (or are held, for repeats) and never allocates.
+ */
+public class InputDispatcher {
+
+    /**
+     * Handles a press, release or hold-repeat of a button.
+     */
+    public interface ButtonListener {
+        /**
+         * Called when the event happens.
+         *
+         * @param button the {@link Button} the event is for
+         * @param state the state the event was detected in
+         */
+        void onButton(Button button, ControllerState state);
+    }
+
+    /**
+     * Handles an analog value crossing a threshold.
+     */
+    public interface ThresholdListener {
+        /**
+         * Called when the value crosses the threshold.
+         *
+         * @param rising true if the value went from below to at or above the threshold
+         * @param value the new value
+         * @param state the state the crossing was detected in
+         */
+        void onCross(boolean rising, double value, ControllerState state);
+    }
+
+    // a hold-repeat registration
+    private static class HoldRepeat {
+        ButtonListener listener;
+        double delay;
+        double interval;
+        double next;
+    }
+
+    // a threshold registration
+    private static class Threshold {
+        ThresholdListener listener;
+        double level;
+    }
+
+    // cached enum values, as values() copies the array every call
+    private static final Button[] BUTTONS = Button.values();
+    private static final Joystick[] JOYSTICKS = Joystick.values();
+    private static final Axis[] AXES = Axis.values();
+
+    // the controller to poll
+    private final Controller controller;
+
+    // handlers, indexed by button ordinal or joystick index
+    private ButtonListener[][] press = new ButtonListener[BUTTONS.length][0];
+    private ButtonListener[][] release = new ButtonListener[BUTTONS.length][0];
+    private HoldRepeat[][] holds = new HoldRepeat[BUTTONS.length][0];
+    private Threshold[][] buttonThresholds = new Threshold[BUTTONS.length][0];
+    private Threshold[][] axisThresholds = new Threshold[JOYSTICKS.length * AXES.length][0];
+
+    // masks of the buttons and axes that have handlers of each kind
+    private int pressMask = 0;
+    private int releaseMask = 0;
+    private int holdMask = 0;
+    private int buttonThresholdMask = 0;
+    private int axisThresholdMask = 0;
+
+    /**
+     * Creates a dispatcher for a controller.
+     *
+     * @param controller the {@link Controller} to read
+     */
+    public InputDispatcher(Controller controller) {
+        this.controller = controller;
+    }
+
+    /**
+     * Registers a handler for when a button goes down.
+     *
+     * @param b the button
+     * @param listener the handler
+     */
+    public void onPress(Button b, ButtonListener listener) {
+        press[b.ordinal()] = append(press[b.ordinal()], listener);
+        pressMask |= 1 << b.ordinal();
+    }
+
+    /**
+     * Registers a handler for when a button comes up.
+     *
+     * @param b the button
+     * @param listener the handler
+     */
+    public void onRelease(Button b, ButtonListener listener) {
+        release[b.ordinal()] = append(release[b.ordinal()], listener);
+        releaseMask |= 1 << b.ordinal();
+    }
+
+    /**
+     * Registers a handler that repeats while a button is held.
+     *
+     * @param b the button
+     * @param delay seconds after the press before the first repeat
+     * @param interval seconds between repeats after that
+     * @param listener the handler
+     */
+    public void onHold(Button b, double delay, double interval, ButtonListener listener) {
+        HoldRepeat h = new HoldRepeat();
+        h.listener = listener;
+        h.delay = delay;
+        h.interval = interval;
+        h.next = Double.POSITIVE_INFINITY;
+        holds[b.ordinal()] = append(holds[b.ordinal()], h);
+        holdMask |= 1 << b.ordinal();
+    }
+
+    /**
+     * Registers a handler for when a button value crosses a threshold. Mostly useful for triggers.
+     *
+     * @param b the button
+     * @param level the threshold
+     * @param listener the handler
+     */
+    public void onThreshold(Button b, double level, ThresholdListener listener) {
+        buttonThresholds[b.ordinal()] = append(buttonThresholds[b.ordinal()], threshold(level, listener));
+        buttonThresholdMask |= 1 << b.ordinal();
+    }
+
+    /**
+     * Registers a handler for when a joystick axis crosses a threshold.
+     *
+     * @param j the joystick
+     * @param ax the axis
+     * @param level the threshold
+     * @param listener the handler
+     */
+    public void onThreshold(Joystick j, Axis ax, double level, ThresholdListener listener) {
+        int i = ControllerState.joyIndex(j, ax);
+        axisThresholds[i] = append(axisThresholds[i], threshold(level, listener));
+        axisThresholdMask |= 1 << i;
+    }
+
+    /**
+     * Reads the controller and dispatches any events since the last read.
+     *
+     * @return the state read, as returned by {@link Controller#getControllerState()}
+     */
+    public ControllerState poll() {
+        ControllerState cur = controller.getControllerState();
+        ControllerState prev = cur.last();
+
+        int now = cur.pressedMask();
+        int was = prev.pressedMask();
+        int changed = now ^ was;
+
+        fire(press, changed & now & pressMask, cur);
+        fire(release, changed & was & releaseMask, cur);
+
+        // hold repeats only look at held buttons with handlers
+        int held = now & holdMask;
+        while (held != 0) {
+            int i = Integer.numberOfTrailingZeros(held);
+            held &= held - 1;
+            boolean justPressed = (changed & (1 << i)) != 0;
+            for (HoldRepeat h : holds[i]) {
+                if (justPressed) {
+                    h.next = cur.time() + h.delay;
+                } else if (cur.time() >= h.next) {
+                    h.next = cur.time() + h.interval;
+                    h.listener.onButton(BUTTONS[i], cur);
+                }
+            }
+        }
+
+        int bt = buttonThresholdMask;
+        while (bt != 0) {
+            int i = Integer.numberOfTrailingZeros(bt);
+            bt &= bt - 1;
+            cross(buttonThresholds[i], prev.btnVal(BUTTONS[i]), cur.btnVal(BUTTONS[i]), cur);
+        }
+
+        int at = axisThresholdMask;
+        while (at != 0) {
+            int i = Integer.numberOfTrailingZeros(at);
+            at &= at - 1;
+            Joystick j = JOYSTICKS[i / AXES.length];
+            Axis ax = AXES[i % AXES.length];
+            cross(axisThresholds[i], prev.joyVal(j, ax), cur.joyVal(j, ax), cur);
+        }
+
+        return cur;
+    }
+
+    /**
+     * Calls the handlers of every button in mask.
+     */
+    private static void fire(ButtonListener[][] handlers, int mask, ControllerState state) {
+        while (mask != 0) {
+            int i = Integer.numberOfTrailingZeros(mask);
+            mask &= mask - 1;
+            for (ButtonListener l : handlers[i]) {
+                l.onButton(BUTTONS[i], state);
+            }
+        }
+    }
+
+    /**
+     * Calls each threshold handler the value crossed between last and current.
+     */
+    private static void cross(Threshold[] thresholds, double last, double current, ControllerState state) {
+        if (last == current) return;
+        for (Threshold t : thresholds) {
+            if (last < t.level && current >= t.level)
+                t.listener.onCross(true, current, state);
+            else if (last >= t.level && current < t.level)
+                t.listener.onCross(false, current, state);
+        }
+    }
+
+    private static Threshold threshold(double level, ThresholdListener listener) {
+        Threshold t = new Threshold();
+        t.level = level;
+        t.listener = listener;
+        return t;
+    }
+
+    private static <T> T[] append(T[] arr, T val) {
+        T[] out = Arrays.copyOf(arr, arr.length + 1);
+        out[arr.length] = val;
+        return out;
+    }
+
+}
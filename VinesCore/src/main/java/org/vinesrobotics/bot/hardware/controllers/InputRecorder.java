@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2018 Vines High School Robotics Team
+ *
+ *                            Permission is hereby granted, free of charge, to any person obtaining a copy
+ *                            of this software and associated documentation files (the "Software"), to deal
+ *                            in the Software without restriction, including without limitation the rights
+ *                            to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *                            copies of the Software, and to permit persons to whom the Software is
+ *                            furnished to do so, subject to the following conditions:
+ *
+ *                            The above copyright notice and this permission notice shall be included in all
+ *                            copies or substantial portions of the Software.
+ *
+ *                            THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *                            IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *                            FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *                            AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *                            LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *                            OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *                            SOFTWARE.
+ */
+
+package org.vinesrobotics.bot.hardware.controllers;
+
+import org.vinesrobotics.bot.hardware.controllers.enums.Button;
+import org.vinesrobotics.bot.hardware.controllers.enums.Joystick;
+import org.vinesrobotics.bot.utils.Axis;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Writes {@link ControllerState}s to a compact binary log that {@link ReplayController} can play
+ * back.
+ * <p>
+ * The log is a header ({@link #MAGIC}, {@link #VERSION}, {@link #RECORD_SIZE}) followed by
+ * fixed-width big-endian records: the read time as a double, the pressed button mask as a short,
+ * the left and right triggers as floats, then the stick axes as floats in
+ * {@link ControllerState#joyIndex(Joystick, Axis)} order. Records go through a preallocated
+ * direct buffer that is written out whenever it fills, so a match is never held in memory.
+ */
+public class InputRecorder {
+    // "VINP"
+    public static final int MAGIC = 0x56494E50;
+    public static final short VERSION = 1;
+    public static final int HEADER_SIZE = 4 + 2 + 2;
+    // time, pressed mask, two triggers, four stick axes
+    public static final int RECORD_SIZE = 8 + 2 + 2 * 4 + 4 * 4;
+
+    // records buffered between writes
+    static final int BUFFERED_RECORDS = 512;
+
+    // cached enum values, as values() copies the array every call
+    static final Joystick[] JOYSTICKS = Joystick.values();
+    static final Axis[] AXES = Axis.values();
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(RECORD_SIZE * BUFFERED_RECORDS);
+    private long records = 0;
+
+    /**
+     * Creates a log file and writes its header.
+     *
+     * @param file the file to write to; overwritten if it exists
+     * @throws IOException if the file cannot be opened
+     */
+    public InputRecorder(File file) throws IOException {
+        channel = new FileOutputStream(file).getChannel();
+        buffer.putInt(MAGIC).putShort(VERSION).putShort((short) RECORD_SIZE);
+    }
+
+    /**
+     * Appends a state to the log.
+     *
+     * @param state the state to write
+     * @throws IOException if the buffer had to be written out and that failed
+     */
+    public void record(ControllerState state) throws IOException {
+        if (buffer.remaining() < RECORD_SIZE) flush();
+
+        buffer.putDouble(state.time());
+        buffer.putShort((short) state.pressedMask());
+        buffer.putFloat((float) state.btnVal(Button.LT));
+        buffer.putFloat((float) state.btnVal(Button.RT));
+        for (Joystick j : JOYSTICKS) {
+            for (Axis ax : AXES) {
+                buffer.putFloat((float) state.joyVal(j, ax));
+            }
+        }
+        records++;
+    }
+
+    /**
+     * Writes any buffered records to the file.
+     *
+     * @throws IOException if the write fails
+     */
+    public void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Flushes and closes the log.
+     *
+     * @throws IOException if the write or close fails
+     */
+    public void close() throws IOException {
+        flush();
+        channel.close();
+    }
+
+    /**
+     * Gets the number of records written so far.
+     *
+     * @return the record count
+     */
+    public long count() {
+        return records;
+    }
+
+}
@@ -41,7 +41,7 @@ public class NullControllerState extends ControllerState {
      * Basic default constructor.
      */
     protected NullControllerState() {
-        super(new Controller());
+        super(null);
     }
 
     @Override
@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2018 Vines High School Robotics Team
+ *
+ *                            Permission is hereby granted, free of charge, to any person obtaining a copy
+ *                            of this software and associated documentation files (the "Software"), to deal
+ *                            in the Software without restriction, including without limitation the rights
+ *                            to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *                            copies of the Software, and to permit persons to whom the Software is
+ *                            furnished to do so, subject to the following conditions:
+ *
+ *                            The above copyright notice and this permission notice shall be included in all
+ *                            copies or substantial portions of the Software.
+ *
+ *                            THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *                            IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *                            FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *                            AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *                            LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *                            OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *                            SOFTWARE.
+ */
+
+package org.vinesrobotics.bot.hardware.controllers;
+
+import org.vinesrobotics.bot.hardware.controllers.enums.Button;
+import org.vinesrobotics.bot.hardware.controllers.enums.Joystick;
+import org.vinesrobotics.bot.utils.Axis;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A {@link Controller} that plays back a log written by {@link InputRecorder} instead of reading a
+ * gamepad. Each {@link #getControllerState()} consumes one record, and state times come from the
+ * log, so hold and double tap queries replay exactly. Once the log runs out the last record is
+ * repeated and {@link #isFinished()} returns true.
+ */
+public class ReplayController extends Controller {
+    // cached enum values, as values() copies the array every call
+    private static final Button[] BUTTONS = Button.values();
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer =
+            ByteBuffer.allocateDirect(InputRecorder.RECORD_SIZE * InputRecorder.BUFFERED_RECORDS);
+
+    // the current record
+    private final float[] buttons = new float[BUTTONS.length];
+    private final float[] joys = new float[InputRecorder.JOYSTICKS.length * InputRecorder.AXES.length];
+    private int pressed = 0;
+    private double time = 0;
+
+    private boolean finished = false;
+
+    /**
+     * Opens a log for playback.
+     *
+     * @param file the log written by an {@link InputRecorder}
+     * @param name the name of the controller
+     * @throws IOException if the file cannot be read or is not a compatible log
+     */
+    public ReplayController(File file, String name) throws IOException {
+        super(name);
+        channel = new FileInputStream(file).getChannel();
+        buffer.limit(0);
+
+        try {
+            if (!fill(InputRecorder.HEADER_SIZE) || buffer.getInt() != InputRecorder.MAGIC)
+                throw new IOException("Not an input log: " + file);
+            short version = buffer.getShort();
+            short size = buffer.getShort();
+            if (version != InputRecorder.VERSION || size != InputRecorder.RECORD_SIZE)
+                throw new IOException("Unsupported input log version " + version + ": " + file);
+        } catch (IOException | RuntimeException e) {
+            // nothing else will close it
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Ensures at least the given number of bytes are buffered, reading more if needed.
+     *
+     * @param bytes the number of bytes needed
+     * @return false if the file ended first
+     * @throws IOException if the read fails
+     */
+    private boolean fill(int bytes) throws IOException {
+        if (buffer.remaining() >= bytes) return true;
+        buffer.compact();
+        while (buffer.position() < bytes) {
+            if (channel.read(buffer) < 0) break;
+        }
+        buffer.flip();
+        return buffer.remaining() >= bytes;
+    }
+
+    /**
+     * Moves to the next record in the log.
+     *
+     * @return false if there are no more records
+     */
+    public boolean advance() {
+        if (finished) return false;
+        try {
+            if (!fill(InputRecorder.RECORD_SIZE)) {
+                finished = true;
+                return false;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            finished = true;
+            return false;
+        }
+
+        time = buffer.getDouble();
+        pressed = buffer.getShort() & 0xFFFF;
+        float lt = buffer.getFloat();
+        float rt = buffer.getFloat();
+        for (int i = 0; i < joys.length; i++) {
+            joys[i] = buffer.getFloat();
+        }
+
+        for (Button b : BUTTONS) {
+            buttons[b.ordinal()] = ((pressed >> b.ordinal()) & 1);
+        }
+        buttons[Button.LT.ordinal()] = lt;
+        buttons[Button.RT.ordinal()] = rt;
+        return true;
+    }
+
+    /**
+     * Checks if the log has run out.
+     *
+     * @return true if every record has been played
+     */
+    public boolean isFinished() {
+        return finished;
+    }
+
+    /**
+     * Closes the log.
+     *
+     * @throws IOException if the close fails
+     */
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    @Override
+    protected int readState(float[] buttons, float[] joys) {
+        advance();
+        System.arraycopy(this.buttons, 0, buttons, 0, buttons.length);
+        System.arraycopy(this.joys, 0, joys, 0, joys.length);
+        return pressed;
+    }
+
+    @Override
+    protected double readTime() {
+        return time;
+    }
+
+    @Override
+    protected float getButtonValue(Button b) {
+        return buttons[b.ordinal()];
+    }
+
+    @Override
+    protected float getJoystickAxis(Joystick stick, Axis ax) {
+        return joys[ControllerState.joyIndex(stick, ax)];
+    }
+
+}
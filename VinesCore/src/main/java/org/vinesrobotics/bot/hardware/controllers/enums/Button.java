@@ -22,32 +22,26 @@
 
 package org.vinesrobotics.bot.hardware.controllers.enums;
 
-import com.qualcomm.robotcore.hardware.Gamepad;
-
-import org.vinesrobotics.bot.utils.Reflection;
-
-import java.lang.reflect.Field;
-
 /**
  * Button enum. Used to retrieve the pressed buttons on a controller. Can have either a boolean or floating point value.
  */
 public enum Button {
-    A(ButtonSide.NA,ButtonType.BUTTON, Reflection.getField(Gamepad.class, "a")),
-    B(ButtonSide.NA,ButtonType.BUTTON, Reflection.getField(Gamepad.class, "b")),
-    X(ButtonSide.NA,ButtonType.BUTTON, Reflection.getField(Gamepad.class, "x")),
-    Y(ButtonSide.NA,ButtonType.BUTTON, Reflection.getField(Gamepad.class, "y")),
-    RS(ButtonSide.RIGHT,ButtonType.STICK, Reflection.getField(Gamepad.class, "right_stick_button")),
-    LS(ButtonSide.LEFT,ButtonType.STICK, Reflection.getField(Gamepad.class, "left_stick_button")),
-    RB(ButtonSide.RIGHT,ButtonType.BUMPER, Reflection.getField(Gamepad.class, "right_bumper")),
-    LB(ButtonSide.LEFT,ButtonType.BUMPER, Reflection.getField(Gamepad.class, "left_bumper")),
-    RT(ButtonSide.RIGHT,ButtonType.TRIGGER, Reflection.getField(Gamepad.class, "right_trigger")),
-    LT(ButtonSide.LEFT,ButtonType.TRIGGER, Reflection.getField(Gamepad.class, "left_trigger")),
-    START(ButtonSide.NA,ButtonType.BUTTON, Reflection.getField(Gamepad.class, "start")),
-    BACK(ButtonSide.NA,ButtonType.BUTTON, Reflection.getField(Gamepad.class, "back")),
-    LEFT(ButtonSide.NA,ButtonType.DPAD, Reflection.getField(Gamepad.class, "dpad_left")),
-    RIGHT(ButtonSide.NA,ButtonType.DPAD, Reflection.getField(Gamepad.class, "dpad_right")),
-    UP(ButtonSide.NA,ButtonType.DPAD, Reflection.getField(Gamepad.class, "dpad_up")),
-    DOWN(ButtonSide.NA,ButtonType.DPAD, Reflection.getField(Gamepad.class, "dpad_down"));
+    A(ButtonSide.NA,ButtonType.BUTTON),
+    B(ButtonSide.NA,ButtonType.BUTTON),
+    X(ButtonSide.NA,ButtonType.BUTTON),
+    Y(ButtonSide.NA,ButtonType.BUTTON),
+    RS(ButtonSide.RIGHT,ButtonType.STICK),
+    LS(ButtonSide.LEFT,ButtonType.STICK),
+    RB(ButtonSide.RIGHT,ButtonType.BUMPER),
+    LB(ButtonSide.LEFT,ButtonType.BUMPER),
+    RT(ButtonSide.RIGHT,ButtonType.TRIGGER),
+    LT(ButtonSide.LEFT,ButtonType.TRIGGER),
+    START(ButtonSide.NA,ButtonType.BUTTON),
+    BACK(ButtonSide.NA,ButtonType.BUTTON),
+    LEFT(ButtonSide.NA,ButtonType.DPAD),
+    RIGHT(ButtonSide.NA,ButtonType.DPAD),
+    UP(ButtonSide.NA,ButtonType.DPAD),
+    DOWN(ButtonSide.NA,ButtonType.DPAD);
 
     // Represents the side of the controller the button is on. Only used for sticks, bumpers and triggers.
     private ButtonSide s;
@@ -71,19 +65,14 @@ public enum Button {
         return t;
     }
 
-    // A field to allow classes in the controllers package to access a sort-of private or protected field
-    public org.vinesrobotics.bot.hardware.controllers.LocalControl<Field> f;
-
     /**
      * The constructor. Used to define the values for each enum value.
      * @param side The side that the button is on. NA for no relevant side.
      * @param type The type of button.
-     * @param field The {@link Field} to access to get the value of the button.
      */
-    Button(ButtonSide side, ButtonType type, Field field) {
+    Button(ButtonSide side, ButtonType type) {
         s = side;
         t = type;
-        f = new org.vinesrobotics.bot.hardware.controllers.LocalControl<>(field);
     }
 
     /**
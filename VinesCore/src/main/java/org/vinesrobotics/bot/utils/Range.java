@@ -124,6 +124,17 @@ public class Range {
         return o instanceof Range && max() == ((Range)o).max() && min() == ((Range)o).min();
     }
 
+    /**
+     * Gets x hash code consistent with {@link #equals(Object)}
+     * @return the hash code
+     */
+    @Override
+    public int hashCode() {
+        // equals uses ==, so -0.0 and 0.0 have to hash the same; adding 0.0 turns -0.0 into 0.0
+        long bits = Double.doubleToLongBits(min() + 0.0) * 31 + Double.doubleToLongBits(max() + 0.0);
+        return (int) (bits ^ (bits >>> 32));
+    }
+
     /**
      * Returns the size of the range. (max-min)
      * @return the size
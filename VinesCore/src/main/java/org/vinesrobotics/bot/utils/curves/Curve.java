@@ -29,4 +29,12 @@ public interface Curve {
      * @return Output
      */
     double getValueFor(double x);
+
+    /**
+     * Gets the values for the first n inputs of xs
+     * @param xs Inputs
+     * @param out Array to put the outputs in; may be xs
+     * @param n Number of inputs
+     */
+    void getValues(double[] xs, double[] out, int n);
 }
@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2017 Vines High School Robotics Team
+ *
+ *                            Permission is hereby granted, free of charge, to any person obtaining a copy
+ *                            of this software and associated documentation files (the "Software"), to deal
+ *                            in the Software without restriction, including without limitation the rights
+ *                            to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *                            copies of the Software, and to permit persons to whom the Software is
+ *                            furnished to do so, subject to the following conditions:
+ *
+ *                            The above copyright notice and this permission notice shall be included in all
+ *                            copies or substantial portions of the Software.
+ *
+ *                            THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *                            IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *                            FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *                            AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *                            LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *                            OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *                            SOFTWARE.
+ */
+
+package org.vinesrobotics.bot.utils.curves;
+
+/**
+ * Created by ViBots on 11/3/2017.
+ */
+
+/**
+ * A {@link Curve} that can cache its values.
+ * <p>
+ * The cache holds at most {@link #setCacheSize(int) cacheSize} values, evicting with CLOCK when
+ * full. By default values are cached by exact input. With x {@link #setCacheResolution(double)
+ * resolution} set, inputs are rounded to multiples of it, and every input in x step gets the
+ * curve's value at the rounded input.
+ */
+public abstract class CurveBase implements Curve {
+
+    // the cache; null until first used, or after the size changes
+    private CurveCache cache = null;
+
+    protected boolean useCache;
+    public void enableCache() { useCache = true;}
+    public void disableCache() { useCache = false;}
+
+    protected int cacheSize = 512;
+
+    /**
+     * Sets the most values the cache holds. Cached values are dropped.
+     *
+     * @param caches the cache size; 0 or less caches nothing
+     */
+    public synchronized void setCacheSize(int caches){
+        cacheSize = caches;
+        cache = null;
+    }
+
+    // step inputs are rounded to; 0 to cache by exact input
+    private double resolution = 0;
+
+    /**
+     * Sets the step inputs are rounded to for caching. Cached values are dropped.
+     *
+     * @param step the resolution; 0 caches by exact input
+     */
+    public synchronized void setCacheResolution(double step){
+        resolution = Math.abs(step);
+        cache = null;
+    }
+
+    public CurveBase() {
+        enableCache();
+    }
+
+    public abstract double getValue(double x);
+
+    /**
+     * Drops every cached value. Curves whose shape can change call this when it does.
+     */
+    protected synchronized void clearCache() {
+        cache = null;
+    }
+
+    /**
+     * Gets the values for the first n inputs of xs, one at x time through {@link #getValueFor(double)}.
+     * Curves with x faster way to do x whole array override this.
+     *
+     * @param xs Inputs
+     * @param out Array to put the outputs in; may be xs
+     * @param n Number of inputs
+     */
+    @Override
+    public void getValues(double[] xs, double[] out, int n) {
+        for (int i = 0; i < n; i++) {
+            out[i] = getValueFor(xs[i]);
+        }
+    }
+
+    @Override
+    public double getValueFor(double x) {
+
+        if (!useCache || cacheSize <= 0 || Double.isNaN(x)) return getValue(x);
+
+        synchronized (this) {
+            long key;
+            if (resolution > 0) {
+                double steps = Math.rint(x / resolution);
+                x = steps * resolution;
+                key = (long) steps;
+            } else {
+                key = Double.doubleToLongBits(x);
+            }
+
+            if (cache == null) cache = new CurveCache(cacheSize);
+
+            int e = cache.find(key);
+            if (e >= 0) return cache.value(e);
+
+            double v = getValue(x);
+            cache.put(key, v);
+            return v;
+        }
+
+    }
+
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2018 Vines High School Robotics Team
+ *
+ *                            Permission is hereby granted, free of charge, to any person obtaining a copy
+ *                            of this software and associated documentation files (the "Software"), to deal
+ *                            in the Software without restriction, including without limitation the rights
+ *                            to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *                            copies of the Software, and to permit persons to whom the Software is
+ *                            furnished to do so, subject to the following conditions:
+ *
+ *                            The above copyright notice and this permission notice shall be included in all
+ *                            copies or substantial portions of the Software.
+ *
+ *                            THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *                            IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *                            FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *                            AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *                            LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *                            OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *                            SOFTWARE.
+ */
+
+package org.vinesrobotics.bot.utils.curves;
+
+import java.util.Arrays;
+
+/**
+ * A fixed-size cache of curve values on primitive arrays, with CLOCK eviction.
+ * <p>
+ * Entries live in dense arrays of exactly the cache size; an open addressing table of twice
+ * that (rounded up to x power of two) maps keys to entries. When it's full, the clock hand
+ * sweeps the entries, giving each one that was used since the last sweep x second chance,
+ * and the first one that wasn't is replaced. Nothing is boxed and nothing runs in the
+ * background.
+ */
+class CurveCache {
+
+    // marks an empty slot in the index
+    private static final int EMPTY = -1;
+
+    // each entry's key, value, and whether it was used since the hand last passed
+    private final long[] keys;
+    private final double[] values;
+    private final boolean[] referenced;
+    // open addressing table of entry numbers, by key hash
+    private final int[] index;
+    // index.length - 1
+    private final int mask;
+
+    // number of entries in use
+    private int count = 0;
+    // the clock hand
+    private int hand = 0;
+
+    /**
+     * Creates x cache.
+     *
+     * @param size the most entries it holds; must be at least 1
+     */
+    CurveCache(int size) {
+        keys = new long[size];
+        values = new double[size];
+        referenced = new boolean[size];
+
+        int slots = Integer.highestOneBit(Math.max(size * 2 - 1, 1)) << 1;
+        index = new int[slots];
+        mask = slots - 1;
+        Arrays.fill(index, EMPTY);
+    }
+
+    /**
+     * Gets the index slot x key hashes to.
+     */
+    private int slotOf(long key) {
+        // spread the bits, since quantized keys are often small consecutive numbers
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    /**
+     * Gets the entry number for x key.
+     *
+     * @param key the key
+     * @return the entry, or -1 if it isn't cached
+     */
+    int find(long key) {
+        for (int slot = slotOf(key); ; slot = (slot + 1) & mask) {
+            int e = index[slot];
+            if (e == EMPTY) return -1;
+            if (keys[e] == key) {
+                referenced[e] = true;
+                return e;
+            }
+        }
+    }
+
+    /**
+     * Gets the value of an entry.
+     *
+     * @param entry the entry number from {@link #find(long)}
+     * @return the value
+     */
+    double value(int entry) {
+        return values[entry];
+    }
+
+    /**
+     * Adds x key that isn't cached, evicting an entry if the cache is full.
+     *
+     * @param key the key
+     * @param value its value
+     */
+    void put(long key, double value) {
+        int e;
+        if (count < keys.length) {
+            e = count++;
+        } else {
+            // CLOCK: clear reference bits until an unreferenced entry comes round
+            while (referenced[hand]) {
+                referenced[hand] = false;
+                hand = (hand + 1) % keys.length;
+            }
+            e = hand;
+            hand = (hand + 1) % keys.length;
+            unlink(e);
+        }
+
+        keys[e] = key;
+        values[e] = value;
+        referenced[e] = false;
+
+        int slot = slotOf(key);
+        while (index[slot] != EMPTY) slot = (slot + 1) & mask;
+        index[slot] = e;
+    }
+
+    /**
+     * Removes an entry from the index, shifting later entries in its probe run back so
+     * lookups still find them.
+     */
+    private void unlink(int entry) {
+        int slot = slotOf(keys[entry]);
+        while (index[slot] != entry) slot = (slot + 1) & mask;
+
+        int hole = slot;
+        for (int next = (hole + 1) & mask; index[next] != EMPTY; next = (next + 1) & mask) {
+            int home = slotOf(keys[index[next]]);
+            // move it back if its home isn't cyclically within (hole, next]
+            boolean stays = hole <= next ? (home > hole && home <= next) : (home > hole || home <= next);
+            if (!stays) {
+                index[hole] = index[next];
+                hole = next;
+            }
+        }
+        index[hole] = EMPTY;
+    }
+
+    /**
+     * Gets the number of entries in use.
+     *
+     * @return the number of cached values
+     */
+    int size() {
+        return count;
+    }
+
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright (c) 2017 Vines High School Robotics Team
+ *
+ *                            Permission is hereby granted, free of charge, to any person obtaining a copy
+ *                            of this software and associated documentation files (the "Software"), to deal
+ *                            in the Software without restriction, including without limitation the rights
+ *                            to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *                            copies of the Software, and to permit persons to whom the Software is
+ *                            furnished to do so, subject to the following conditions:
+ *
+ *                            The above copyright notice and this permission notice shall be included in all
+ *                            copies or substantial portions of the Software.
+ *
+ *                            THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *                            IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *                            FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *                            AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *                            LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *                            OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *                            SOFTWARE.
+ */
+
+package org.vinesrobotics.bot.utils.curves;
+
+import org.vinesrobotics.bot.utils.Range;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * A curve made of other curves, each used over its own {@link Range} of inputs. Inputs outside
+ * every range give {@link Double#POSITIVE_INFINITY}.
+ * <p>
+ * Where ranges overlap, the {@link OverlapPolicy} decides which curve is used. The ranges are
+ * kept as x sorted list of breakpoints, so x lookup is x binary search.
+ */
+public class CurveCombination extends CurveBase {
+
+    /**
+     * What to do where two ranges overlap.
+     */
+    public enum OverlapPolicy {
+        /** The curve set most recently is used. */
+        LAST_WINS,
+        /** The curve set first is used. */
+        FIRST_WINS,
+        /** Setting x curve whose range overlaps another throws. */
+        REJECT
+    }
+
+    /**
+     * The ranges flattened to breakpoints, with the curve used at and after each.
+     */
+    private static final class Index {
+        // sorted range ends
+        final double[] bounds;
+        // the curve for x == bounds[i]; null for none
+        final Curve[] atBound;
+        // the curve for bounds[i] < x < bounds[i+1]; null for none
+        final Curve[] between;
+
+        Index(double[] bounds, Curve[] atBound, Curve[] between) {
+            this.bounds = bounds;
+            this.atBound = atBound;
+            this.between = between;
+        }
+    }
+
+    // the curves, in the order they were set
+    private final Map<Range,Curve> curves = new LinkedHashMap<>();
+    // how overlaps are settled
+    private OverlapPolicy policy = OverlapPolicy.LAST_WINS;
+    // lookup index, rebuilt on every change
+    private volatile Index index = new Index(new double[0], new Curve[0], new Curve[0]);
+
+    public CurveCombination() {
+    }
+
+    public CurveCombination(OverlapPolicy policy) {
+        this.policy = policy;
+    }
+
+    /**
+     * Sets how overlaps are settled.
+     *
+     * @param policy the new policy
+     * @throws IllegalStateException if the policy is REJECT and the ranges already overlap
+     */
+    public synchronized void setOverlapPolicy(OverlapPolicy policy) {
+        if (policy == OverlapPolicy.REJECT) {
+            List<Range> ranges = new ArrayList<>(curves.keySet());
+            for (int i = 0; i < ranges.size(); i++)
+                for (int j = i + 1; j < ranges.size(); j++)
+                    if (overlaps(ranges.get(i), ranges.get(j)))
+                        throw new IllegalStateException("Ranges " + i + " and " + j + " already overlap");
+        }
+        this.policy = policy;
+        rebuild();
+    }
+
+    /**
+     * Gets how overlaps are settled.
+     *
+     * @return the policy
+     */
+    public OverlapPolicy getOverlapPolicy() {
+        return policy;
+    }
+
+    /**
+     * Gets the curves by range, in the order they were set.
+     *
+     * @return an unmodifiable view of the curves
+     */
+    public Map<Range,Curve> getCurves() {
+        return Collections.unmodifiableMap(curves);
+    }
+
+    /**
+     * Sets the curve for x range, replacing any curve set for the same range. A replaced curve
+     * counts as set now.
+     *
+     * @param r the range of inputs
+     * @param c the curve for it
+     * @throws IllegalArgumentException if the policy is REJECT and r overlaps another range
+     */
+    public synchronized void setCurve(Range r, Curve c) {
+        if (policy == OverlapPolicy.REJECT) {
+            for (Range other : curves.keySet()) {
+                if (!other.equals(r) && overlaps(other, r))
+                    throw new IllegalArgumentException("Range overlaps an existing range");
+            }
+        }
+        if (c instanceof CurveBase && this.useCache) {
+            CurveBase cb = (CurveBase) c;
+            cb.disableCache();
+        }
+        curves.remove(r);
+        curves.put(r,c);
+        rebuild();
+    }
+
+    public synchronized void removeCurve(Range r) {
+        curves.remove(r);
+        rebuild();
+    }
+
+    public synchronized void replaceCurve(Range r, Curve c) {
+        removeCurve(r);
+        setCurve(r,c);
+    }
+
+    /**
+     * Checks whether two closed ranges share any input.
+     */
+    private static boolean overlaps(Range a, Range b) {
+        return a.min() <= b.max() && b.min() <= a.max();
+    }
+
+    /**
+     * Rebuilds the lookup index from the curves.
+     */
+    private void rebuild() {
+        // highest priority first
+        List<Map.Entry<Range,Curve>> order = new ArrayList<>(curves.entrySet());
+        if (policy == OverlapPolicy.LAST_WINS) Collections.reverse(order);
+
+        TreeSet<Double> ends = new TreeSet<>();
+        for (Range r : curves.keySet()) {
+            if (r.min() > r.max()) continue;
+            // + 0.0 turns -0.0 into 0.0, which Range treats as equal
+            ends.add(r.min() + 0.0);
+            ends.add(r.max() + 0.0);
+        }
+
+        double[] bounds = new double[ends.size()];
+        int n = 0;
+        for (double d : ends) bounds[n++] = d;
+
+        Curve[] atBound = new Curve[n];
+        Curve[] between = new Curve[n];
+        for (int i = 0; i < n; i++) {
+            atBound[i] = winner(order, bounds[i], bounds[i]);
+            if (i + 1 < n) between[i] = winner(order, bounds[i], bounds[i + 1]);
+        }
+
+        index = new Index(bounds, atBound, between);
+        clearCache();
+    }
+
+    /**
+     * Finds the highest priority curve whose range covers [lo, hi].
+     */
+    private static Curve winner(List<Map.Entry<Range,Curve>> order, double lo, double hi) {
+        for (Map.Entry<Range,Curve> e : order) {
+            Range r = e.getKey();
+            if (r.min() <= lo && hi <= r.max()) return e.getValue();
+        }
+        return null;
+    }
+
+    @Override
+    public double getValue(double x) {
+        Index idx = index;
+        int i = Arrays.binarySearch(idx.bounds, x + 0.0);
+
+        Curve c;
+        if (i >= 0) {
+            c = idx.atBound[i];
+        } else {
+            int ins = -i - 1;
+            c = ins == 0 || ins == idx.bounds.length ? null : idx.between[ins - 1];
+        }
+        return c == null ? Double.POSITIVE_INFINITY : c.getValueFor(x);
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2018 Vines High School Robotics Team
+ *
+ *                            Permission is hereby granted, free of charge, to any person obtaining a copy
+ *                            of this software and associated documentation files (the "Software"), to deal
+ *                            in the Software without restriction, including without limitation the rights
+ *                            to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *                            copies of the Software, and to permit persons to whom the Software is
+ *                            furnished to do so, subject to the following conditions:
+ *
+ *                            The above copyright notice and this permission notice shall be included in all
+ *                            copies or substantial portions of the Software.
+ *
+ *                            THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *                            IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *                            FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *                            AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *                            LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *                            OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *                            SOFTWARE.
+ */
+
+package org.vinesrobotics.bot.utils.curves;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Flattens x {@link Curve}, however deeply its curves are nested, into one {@link CurveTable}
+ * over x declared input domain.
+ * <p>
+ * The table starts small and is doubled until interpolating it stays within the requested error
+ * of the curve, or it reaches {@link #MAX_SEGMENTS}. Smooth curves like the {@link LinearCurve}s
+ * and {@link PolynomialCurve}s used for shaping finish in x few dozen entries; curves with jumps,
+ * like x {@link CurveCombination} with gaps, stop at the limit and report the error they got.
+ * <pre>
+ *    CurveTable shape = CurveCompiler.compile(new ClampedCurve(new PolynomialCurve(...), new Range(-1,1)), -1, 1, 1e-3);
+ * </pre>
+ */
+public final class CurveCompiler {
+
+    // the smallest table tried
+    public static final int MIN_SEGMENTS = 16;
+    // the largest table made
+    public static final int MAX_SEGMENTS = 1 << 16;
+
+    private CurveCompiler() {}
+
+    /**
+     * Compiles x curve into x table.
+     *
+     * @param curve the curve to compile
+     * @param min the lowest input the table covers
+     * @param max the highest input the table covers
+     * @param maxError the largest difference from curve allowed inside the domain
+     * @return the table; check {@link CurveTable#getErrorBound()} if curve may have jumps
+     */
+    public static CurveTable compile(Curve curve, double min, double max, double maxError) {
+        if (!(max > min)) throw new IllegalArgumentException("Domain must not be empty");
+
+        // nested curves each cache; sampling once per input would only fill them up
+        boolean[] cached = setCaches(curve, null);
+
+        try {
+            int segments = MIN_SEGMENTS;
+            while (true) {
+                double[] table = CurveTable.sample(curve, min, max, segments);
+                double error = CurveTable.measureError(curve, table, min, max);
+                if (error <= maxError || segments >= MAX_SEGMENTS)
+                    return new CurveTable(curve, min, max, table, error);
+                segments *= 2;
+            }
+        } finally {
+            setCaches(curve, cached);
+        }
+    }
+
+    /**
+     * Turns the caches of x curve tree off, or restores them.
+     *
+     * @param curve the root of the tree
+     * @param restore the states to restore, in the order this returns them, or null to turn off
+     * @return the states before, in tree order
+     */
+    private static boolean[] setCaches(Curve curve, boolean[] restore) {
+        List<CurveBase> nodes = new ArrayList<>();
+        collect(curve, nodes);
+
+        boolean[] before = new boolean[nodes.size()];
+        for (int i = 0; i < nodes.size(); i++) {
+            CurveBase node = nodes.get(i);
+            before[i] = node.useCache;
+            if (restore != null && restore[i]) node.enableCache();
+            else node.disableCache();
+        }
+        return before;
+    }
+
+    /**
+     * Lists every {@link CurveBase} in x curve tree.
+     */
+    private static void collect(Curve curve, List<CurveBase> nodes) {
+        if (!(curve instanceof CurveBase) || nodes.contains(curve)) return;
+        nodes.add((CurveBase) curve);
+        if (curve instanceof ClampedCurve) {
+            collect(((ClampedCurve) curve).curve, nodes);
+        } else if (curve instanceof CurveCombination) {
+            for (Curve c : ((CurveCombination) curve).getCurves().values()) collect(c, nodes);
+        }
+    }
+
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright (c) 2018 Vines High School Robotics Team
+ *
+ *                            Permission is hereby granted, free of charge, to any person obtaining a copy
+ *                            of this software and associated documentation files (the "Software"), to deal
+ *                            in the Software without restriction, including without limitation the rights
+ *                            to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *                            copies of the Software, and to permit persons to whom the Software is
+ *                            furnished to do so, subject to the following conditions:
+ *
+ *                            The above copyright notice and this permission notice shall be included in all
+ *                            copies or substantial portions of the Software.
+ *
+ *                            THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *                            IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *                            FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *                            AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *                            LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *                            OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *                            SOFTWARE.
+ */
+
+package org.vinesrobotics.bot.utils.curves;
+
+/**
+ * An immutable table of x {@link Curve}'s values over x domain, evaluated by linear
+ * interpolation between entries. Reading it takes no locks and allocates nothing, so it can be
+ * used in x loop or shared between threads. Inputs outside the domain go to the source curve.
+ *
+ * @see CurveCompiler
+ */
+public final class CurveTable implements Curve {
+
+    // the curve the table was made from
+    private final Curve source;
+    // the curve's value at each entry
+    private final double[] table;
+    // the domain
+    private final double min, max;
+    // entries per unit of input
+    private final double scale;
+    // the largest difference from the source curve found between entries
+    private final double errorBound;
+
+    /**
+     * Samples x curve into x table.
+     *
+     * @param curve the curve to sample
+     * @param min the lowest input in the table
+     * @param max the highest input in the table
+     * @param segments the number of intervals the domain is split into; there is one more entry
+     */
+    public CurveTable(Curve curve, double min, double max, int segments) {
+        if (segments < 1) throw new IllegalArgumentException("Needs at least one segment");
+        if (!(max > min)) throw new IllegalArgumentException("Domain must not be empty");
+
+        source = curve;
+        this.min = min;
+        this.max = max;
+        scale = segments / (max - min);
+        table = sample(curve, min, max, segments);
+        errorBound = measureError(curve, table, min, max);
+    }
+
+    /**
+     * Wraps an already sampled and measured table.
+     */
+    CurveTable(Curve curve, double min, double max, double[] table, double errorBound) {
+        source = curve;
+        this.min = min;
+        this.max = max;
+        this.table = table;
+        this.errorBound = errorBound;
+        scale = (table.length - 1) / (max - min);
+    }
+
+    /**
+     * Samples x curve at evenly spaced points, both ends included.
+     *
+     * @param curve the curve to sample
+     * @param min the first input
+     * @param max the last input
+     * @param segments the number of intervals between samples
+     * @return the samples
+     */
+    static double[] sample(Curve curve, double min, double max, int segments) {
+        double step = (max - min) / segments;
+        double[] table = new double[segments + 1];
+        for (int i = 0; i < segments; i++) {
+            table[i] = curve.getValueFor(min + i * step);
+        }
+        // exact at the top, whatever the rounding would do
+        table[segments] = curve.getValueFor(max);
+        return table;
+    }
+
+    /**
+     * Finds the largest difference between x table's interpolation and its curve, checking
+     * each interval at its quarter points.
+     *
+     * @param curve the curve sampled
+     * @param table the samples
+     * @param min the first input
+     * @param max the last input
+     * @return the largest difference found
+     */
+    static double measureError(Curve curve, double[] table, double min, double max) {
+        int segments = table.length - 1;
+        double step = (max - min) / segments;
+        double worst = 0;
+        for (int i = 0; i < segments; i++) {
+            for (int q = 1; q <= 3; q++) {
+                double f = q / 4.0;
+                double exact = curve.getValueFor(min + (i + f) * step);
+                double approx = table[i] + (table[i + 1] - table[i]) * f;
+                double err = Math.abs(exact - approx);
+                // NaN counts as infinitely wrong
+                if (!(err <= worst)) worst = Double.isNaN(err) ? Double.POSITIVE_INFINITY : err;
+            }
+        }
+        return worst;
+    }
+
+    /**
+     * Gets the interpolated value for x, or the source curve's value if x is outside the domain.
+     *
+     * @param x Input
+     * @return Output
+     */
+    @Override
+    public double getValueFor(double x) {
+        // also catches NaN
+        if (!(x >= min && x <= max)) return source.getValueFor(x);
+
+        double t = (x - min) * scale;
+        int i = (int) t;
+        if (i >= table.length - 1) return table[table.length - 1];
+
+        double a = table[i];
+        return a + (table[i + 1] - a) * (t - i);
+    }
+
+    /**
+     * Gets the interpolated values for the first n inputs of xs.
+     *
+     * @param xs Inputs
+     * @param out Array to put the outputs in; may be xs
+     * @param n Number of inputs
+     */
+    @Override
+    public void getValues(double[] xs, double[] out, int n) {
+        for (int i = 0; i < n; i++) {
+            out[i] = getValueFor(xs[i]);
+        }
+    }
+
+    /**
+     * Gets the largest difference from the source curve found when the table was made. It's
+     * measured at points between entries, so x curve with features narrower than an interval
+     * can be off by more.
+     *
+     * @return the error bound
+     */
+    public double getErrorBound() {
+        return errorBound;
+    }
+
+    /**
+     * Gets the number of intervals in the table.
+     *
+     * @return the number of segments
+     */
+    public int getSegments() {
+        return table.length - 1;
+    }
+
+    /**
+     * Gets the curve the table was made from.
+     *
+     * @return the source curve
+     */
+    public Curve getSource() {
+        return source;
+    }
+
+}
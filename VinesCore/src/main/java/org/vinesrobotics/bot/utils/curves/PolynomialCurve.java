@@ -22,43 +22,52 @@
 
 package org.vinesrobotics.bot.utils.curves;
 
-import org.vinesrobotics.bot.utils.Range;
-
-import java.util.HashMap;
-import java.util.Map;
-
-public class CurveCombination extends CurveBase {
-
-    public Map<Range,Curve> curves = new HashMap<>();
+/**
+ * A polynomial with no constant term. The coefficients are given highest power first, and the
+ * last one is for x itself, so {@code new PolynomialCurve(a, b, c)} is a*x^3 + b*x^2 + c*x.
+ */
+public class PolynomialCurve extends CurveBase {
 
-    public void setCurve(Range r, Curve c) {
-        if (c instanceof CurveBase && this.useCache) {
-            CurveBase cb = (CurveBase) c;
-            cb.disableCache();
-        }
-        curves.put(r,c);
-    }
+    // coefficients, highest power first
+    private final double[] coefficients;
 
-    public void removeCurve(Range r) {
-        curves.remove(r);
+    public PolynomialCurve(double... coe) {
+        coefficients = coe.clone();
     }
 
-    public void replaceCurve(Range r, Curve c) {
-        removeCurve(r);
-        setCurve(r,c);
+    @Override
+    public double getValue(double x) {
+        return horner(coefficients, x);
     }
 
+    /**
+     * Gets the values for the first n inputs of xs. Uncached, this is one tight loop.
+     *
+     * @param xs Inputs
+     * @param out Array to put the outputs in; may be xs
+     * @param n Number of inputs
+     */
     @Override
-    public double getValue(double x) {
-        double out = Double.POSITIVE_INFINITY;
-        for (Map.Entry<Range, Curve> s : curves.entrySet()) {
-            Range r = s.getKey();
-            Curve c = s.getValue();
+    public void getValues(double[] xs, double[] out, int n) {
+        if (useCache) {
+            super.getValues(xs, out, n);
+            return;
+        }
+        double[] coe = coefficients;
+        for (int i = 0; i < n; i++) {
+            out[i] = horner(coe, xs[i]);
+        }
+    }
 
-            if (r.inRange(x)) {
-                out =  c.getValueFor(x);
-            }
+    /**
+     * Evaluates the polynomial with Horner's method.
+     */
+    private static double horner(double[] coe, double x) {
+        double sum = 0;
+        for (double co : coe) {
+            sum = sum * x + co;
         }
-        return out;
+        // lowest power is 1
+        return sum * x;
     }
 }
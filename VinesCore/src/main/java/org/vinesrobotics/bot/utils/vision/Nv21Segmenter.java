@@ -0,0 +1,517 @@
+/*
+ * Copyright (c) 2018 Vines High School Robotics Team
+ *
+ *                            Permission is hereby granted, free of charge, to any person obtaining a copy
+ *                            of this software and associated documentation files (the "Software"), to deal
+ *                            in the Software without restriction, including without limitation the rights
+ *                            to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *                            copies of the Software, and to permit persons to whom the Software is
+ *                            furnished to do so, subject to the following conditions:
+ *
+ *                            The above copyright notice and this permission notice shall be included in all
+ *                            copies or substantial portions of the Software.
+ *
+ *                            THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *                            IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *                            FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *                            AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *                            LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *                            OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *                            SOFTWARE.
+ */
+
+package org.vinesrobotics.bot.utils.vision;
+
+import java.util.Arrays;
+
+/**
+ * Finds colour blobs in the NV21 frames an Android camera previews in, in plain Java, so it runs
+ * without the OpenCV native library and on any JVM.
+ * <p>
+ * Each frame is sampled at x quarter of its size, the same as ColorBlobDetector's downsampling,
+ * and every sample is labelled with its colour class by x lookup table indexed by quantized Y, U
+ * and V, so the per-pixel work is all integer. Each row becomes runs of equal labels, and runs
+ * of x class close enough to join are merged with union-find. Two runs join when they come
+ * within {@link #JOIN} samples of each other, which is when ColorBlobDetector's 3x3 dilation
+ * would join them, and the bounding boxes are grown by the dilation too, so both give the same
+ * blobs. Areas are sample counts, before dilation.
+ * <p>
+ * Classes are boxes in YUV, or in HSV on OpenCV's full range 0 to 255 scale, where x hue range
+ * whose low end is above its high end wraps around through 0. Where classes overlap, the one
+ * added first wins. The HSV of each table cell is worked out from its center, so class edges
+ * are quantized to the cells.
+ */
+public class Nv21Segmenter {
+    // frame pixels per sample in each direction; the same as FramePreprocessor.SCALE
+    public static final int SCALE = 4;
+    // the most classes there can be; label 0 is no class
+    public static final int MAX_CLASSES = 255;
+    // the furthest apart, in samples, two runs can be and still join
+    public static final int JOIN = 3;
+    // bits of each of Y, U and V used to index the table
+    private static final int BITS = 5;
+
+    // frame size, and sample grid size
+    private final int width;
+    private final int height;
+    private final int cols;
+    private final int rows;
+
+    // the label of each quantized colour; replaced, never changed, as another thread may read it
+    private volatile byte[] lut = new byte[1 << (3 * BITS)];
+    // number of classes
+    private int classes = 0;
+    // blobs smaller than this fraction of their class's biggest are dropped
+    private double minArea = 0.1;
+
+    // Workspace, grown as needed and reused every frame
+    // the labels of the row being encoded
+    private final byte[] rowLabels;
+    // the first run of each row; rows + 1 entries
+    private final int[] rowFirst;
+    // the row, first and last column, class and union-find parent of each run
+    private int[] runRow = new int[256];
+    private int[] runStart = new int[256];
+    private int[] runEnd = new int[256];
+    private int[] runClass = new int[256];
+    private int[] runParent = new int[256];
+    private int runCount = 0;
+    // the blob of each root run
+    private int[] runBlob = new int[256];
+    // the class, sample count, coordinate sums and bounding box of each blob
+    private int[] blobClass = new int[16];
+    private int[] blobArea = new int[16];
+    private long[] blobSumX = new long[16];
+    private long[] blobSumY = new long[16];
+    private int[] blobBoxes = new int[16 * 4];
+    private int blobCount = 0;
+
+    // The results of the last frame, by class
+    private int[] counts = new int[0];
+    private double[][] xs = new double[0][];
+    private double[][] ys = new double[0][];
+    private int[][] boxes = new int[0][];
+    // the biggest blob of each class
+    private int[] maxAreas = new int[0];
+
+    /**
+     * Creates x segmenter for frames of x given size.
+     *
+     * @param width Frame width, x multiple of {@link #SCALE}
+     * @param height Frame height, x multiple of {@link #SCALE}
+     * @throws IllegalArgumentException if the size isn't a positive multiple of {@link #SCALE}
+     */
+    public Nv21Segmenter(int width, int height) {
+        if (width <= 0 || height <= 0 || width % SCALE != 0 || height % SCALE != 0)
+            throw new IllegalArgumentException("Frame size must be a positive multiple of " + SCALE);
+        this.width = width;
+        this.height = height;
+        cols = width / SCALE;
+        rows = height / SCALE;
+        rowLabels = new byte[cols];
+        rowFirst = new int[rows + 1];
+    }
+
+    /**
+     * Adds x class for x box in YUV. All bounds are inclusive, 0 to 255.
+     *
+     * @param yLow Lowest luma
+     * @param yHigh Highest luma
+     * @param uLow Lowest blue difference
+     * @param uHigh Highest blue difference
+     * @param vLow Lowest red difference
+     * @param vHigh Highest red difference
+     * @return the class number, counting from 0
+     */
+    public synchronized int addYuvClass(int yLow, int yHigh, int uLow, int uHigh, int vLow, int vHigh) {
+        int label = nextLabel();
+        byte[] next = lut.clone();
+        for (int i = 0; i < next.length; i++) {
+            if (next[i] != 0) continue;
+            double y = center(i >> (2 * BITS));
+            double u = center(i >> BITS);
+            double v = center(i);
+            if (y >= yLow && y <= yHigh && u >= uLow && u <= uHigh && v >= vLow && v <= vHigh)
+                next[i] = (byte) label;
+        }
+        return addLabel(next);
+    }
+
+    /**
+     * Adds x class for x box in HSV, converted the way OpenCV's COLOR_RGB2HSV_FULL does. All
+     * bounds are inclusive, on x 0 to 255 scale.
+     *
+     * @param hLow Lowest hue
+     * @param hHigh Highest hue; below hLow to wrap around through 0
+     * @param sLow Lowest saturation
+     * @param sHigh Highest saturation
+     * @param vLow Lowest value
+     * @param vHigh Highest value
+     * @return the class number, counting from 0
+     */
+    public synchronized int addHsvClass(double hLow, double hHigh, double sLow, double sHigh, double vLow, double vHigh) {
+        int label = nextLabel();
+        byte[] next = lut.clone();
+        double[] hsv = new double[3];
+        for (int i = 0; i < next.length; i++) {
+            if (next[i] != 0) continue;
+            toHsv(center(i >> (2 * BITS)), center(i >> BITS), center(i), hsv);
+            double h = hsv[0];
+            boolean inHue = hLow <= hHigh ? (h >= hLow && h <= hHigh) : (h >= hLow || h <= hHigh);
+            if (inHue && hsv[1] >= sLow && hsv[1] <= sHigh && hsv[2] >= vLow && hsv[2] <= vHigh)
+                next[i] = (byte) label;
+        }
+        return addLabel(next);
+    }
+
+    /**
+     * Sets the smallest blob kept, relative to the biggest of its class.
+     *
+     * @param fraction The fraction of the biggest blob's area
+     */
+    public void setMinArea(double fraction) {
+        minArea = fraction;
+    }
+
+    /**
+     * Gets the number of classes.
+     *
+     * @return the class count
+     */
+    public int getClassCount() {
+        return classes;
+    }
+
+    /**
+     * Gets the label the next class will have, checking there is room for it.
+     */
+    private int nextLabel() {
+        if (classes >= MAX_CLASSES)
+            throw new IllegalStateException("No more than " + MAX_CLASSES + " colour classes");
+        return classes + 1;
+    }
+
+    /**
+     * Publishes x table with one more class in it, and makes room for its results.
+     */
+    private int addLabel(byte[] next) {
+        int cls = classes++;
+        counts = Arrays.copyOf(counts, classes);
+        maxAreas = Arrays.copyOf(maxAreas, classes);
+        xs = Arrays.copyOf(xs, classes);
+        ys = Arrays.copyOf(ys, classes);
+        boxes = Arrays.copyOf(boxes, classes);
+        xs[cls] = new double[8];
+        ys[cls] = new double[8];
+        boxes[cls] = new int[8 * 4];
+        lut = next;
+        return cls;
+    }
+
+    /**
+     * Gets the value at the center of x table cell.
+     *
+     * @param q The cell index along one channel; higher bits are ignored
+     * @return the center value, 0 to 255
+     */
+    private static double center(int q) {
+        int step = 256 >> BITS;
+        return (q & ((1 << BITS) - 1)) * step + (step - 1) / 2.0;
+    }
+
+    /**
+     * Converts x YUV colour to HSV on OpenCV's full range scale, going through RGB with the same
+     * BT.601 coefficients as OpenCV's COLOR_YUV2RGBA_NV21, so colours get the same HSV as they
+     * would through the camera view. Used to build lookup tables, not per pixel.
+     *
+     * @param y Luma
+     * @param u Blue difference
+     * @param v Red difference
+     * @param hsv Receives hue, saturation and value
+     */
+    public static void toHsv(double y, double u, double v, double[] hsv) {
+        double luma = 1.164 * Math.max(0, y - 16);
+        double r = clamp(luma + 1.596 * (v - 128));
+        double g = clamp(luma - 0.813 * (v - 128) - 0.391 * (u - 128));
+        double b = clamp(luma + 2.018 * (u - 128));
+
+        double max = Math.max(r, Math.max(g, b));
+        double min = Math.min(r, Math.min(g, b));
+        double diff = max - min;
+        double h = 0;
+        if (diff > 0) {
+            if (max == r) h = 60 * (g - b) / diff;
+            else if (max == g) h = 120 + 60 * (b - r) / diff;
+            else h = 240 + 60 * (r - g) / diff;
+            if (h < 0) h += 360;
+        }
+        hsv[0] = Math.round(h * 256 / 360) & 0xFF;
+        hsv[1] = max > 0 ? Math.round(255 * diff / max) : 0;
+        hsv[2] = Math.round(max);
+    }
+
+    private static double clamp(double x) {
+        return x < 0 ? 0 : (x > 255 ? 255 : x);
+    }
+
+    /**
+     * Finds the blobs of every class in x frame. Only one thread may call this at x time, and
+     * the results stay until the next call.
+     *
+     * @param nv21 The frame, as the camera's preview callback gives it
+     * @throws IllegalArgumentException if the frame is too small for the size given
+     */
+    public void segment(byte[] nv21) {
+        if (nv21.length < width * height * 3 / 2)
+            throw new IllegalArgumentException("NV21 frame too small for " + width + "x" + height);
+        byte[] table = lut;
+        runCount = 0;
+
+        for (int r = 0; r < rows; r++) {
+            rowFirst[r] = runCount;
+            label(nv21, table, r);
+            encode(r);
+        }
+        rowFirst[rows] = runCount;
+
+        measure();
+        collect();
+    }
+
+    /**
+     * Labels one row of samples. Each sample is the mean of the 2x2 luma in the middle of its
+     * block and the chroma pair covering the block's center.
+     *
+     * @param nv21 The frame
+     * @param table The lookup table
+     * @param r The sample row
+     */
+    private void label(byte[] nv21, byte[] table, int r) {
+        int top = (r * SCALE + 1) * width;
+        int chroma = width * height + (r * 2 + 1) * width;
+        for (int c = 0; c < cols; c++) {
+            int x = c * SCALE + 1;
+            int y = ((nv21[top + x] & 0xFF) + (nv21[top + x + 1] & 0xFF)
+                    + (nv21[top + width + x] & 0xFF) + (nv21[top + width + x + 1] & 0xFF) + 2) >> 2;
+            int uv = chroma + (c * 2 + 1) * 2;
+            int v = nv21[uv] & 0xFF;
+            int u = nv21[uv + 1] & 0xFF;
+            rowLabels[c] = table[((y >> (8 - BITS)) << (2 * BITS)) | ((u >> (8 - BITS)) << BITS) | (v >> (8 - BITS))];
+        }
+    }
+
+    /**
+     * Splits the labelled row into runs and joins each to the runs of its class near it in this
+     * row and the {@link #JOIN} rows above.
+     *
+     * @param r The sample row
+     */
+    private void encode(int r) {
+        int c = 0;
+        while (c < cols) {
+            int label = rowLabels[c] & 0xFF;
+            int start = c;
+            while (c < cols && (rowLabels[c] & 0xFF) == label) c++;
+            if (label == 0) continue;
+
+            int run = addRun(r, start, c - 1, label - 1);
+            int from = rowFirst[Math.max(0, r - JOIN)];
+            for (int j = from; j < run; j++) {
+                if (runClass[j] == runClass[run] && runStart[j] <= c - 1 + JOIN && start <= runEnd[j] + JOIN)
+                    union(j, run);
+            }
+        }
+    }
+
+    /**
+     * Adds x run, as its own set.
+     *
+     * @return the run's index
+     */
+    private int addRun(int row, int start, int end, int cls) {
+        if (runCount == runRow.length) {
+            int size = runCount * 2;
+            runRow = Arrays.copyOf(runRow, size);
+            runStart = Arrays.copyOf(runStart, size);
+            runEnd = Arrays.copyOf(runEnd, size);
+            runClass = Arrays.copyOf(runClass, size);
+            runParent = Arrays.copyOf(runParent, size);
+            runBlob = Arrays.copyOf(runBlob, size);
+        }
+        int i = runCount++;
+        runRow[i] = row;
+        runStart[i] = start;
+        runEnd[i] = end;
+        runClass[i] = cls;
+        runParent[i] = i;
+        return i;
+    }
+
+    /**
+     * Finds the root of x run's set, halving the path on the way.
+     */
+    private int find(int i) {
+        while (runParent[i] != i) {
+            runParent[i] = runParent[runParent[i]];
+            i = runParent[i];
+        }
+        return i;
+    }
+
+    /**
+     * Joins the sets of two runs, keeping the earlier root.
+     */
+    private void union(int a, int b) {
+        int ra = find(a);
+        int rb = find(b);
+        if (ra < rb) runParent[rb] = ra;
+        else if (rb < ra) runParent[ra] = rb;
+    }
+
+    /**
+     * Sums the area, coordinates and bounds of every set of runs into x blob. Roots always come
+     * before the rest of their set, so one pass in order finds every blob.
+     */
+    private void measure() {
+        blobCount = 0;
+        Arrays.fill(maxAreas, 0);
+        for (int i = 0; i < runCount; i++) {
+            int root = find(i);
+            int b;
+            if (root == i) {
+                b = addBlob(runClass[i]);
+                runBlob[i] = b;
+            } else {
+                b = runBlob[root];
+            }
+
+            int len = runEnd[i] - runStart[i] + 1;
+            blobArea[b] += len;
+            // (start + end) * len is always even
+            blobSumX[b] += (long) (runStart[i] + runEnd[i]) * len / 2;
+            blobSumY[b] += (long) runRow[i] * len;
+            int box = b * 4;
+            blobBoxes[box] = Math.min(blobBoxes[box], runStart[i]);
+            blobBoxes[box + 1] = Math.min(blobBoxes[box + 1], runRow[i]);
+            blobBoxes[box + 2] = Math.max(blobBoxes[box + 2], runEnd[i]);
+            blobBoxes[box + 3] = Math.max(blobBoxes[box + 3], runRow[i]);
+        }
+        for (int b = 0; b < blobCount; b++) {
+            int cls = blobClass[b];
+            if (blobArea[b] > maxAreas[cls]) maxAreas[cls] = blobArea[b];
+        }
+    }
+
+    /**
+     * Adds an empty blob.
+     *
+     * @return the blob's index
+     */
+    private int addBlob(int cls) {
+        if (blobCount == blobClass.length) {
+            int size = blobCount * 2;
+            blobClass = Arrays.copyOf(blobClass, size);
+            blobArea = Arrays.copyOf(blobArea, size);
+            blobSumX = Arrays.copyOf(blobSumX, size);
+            blobSumY = Arrays.copyOf(blobSumY, size);
+            blobBoxes = Arrays.copyOf(blobBoxes, size * 4);
+        }
+        int b = blobCount++;
+        blobClass[b] = cls;
+        blobArea[b] = 0;
+        blobSumX[b] = 0;
+        blobSumY[b] = 0;
+        blobBoxes[b * 4] = Integer.MAX_VALUE;
+        blobBoxes[b * 4 + 1] = Integer.MAX_VALUE;
+        blobBoxes[b * 4 + 2] = Integer.MIN_VALUE;
+        blobBoxes[b * 4 + 3] = Integer.MIN_VALUE;
+        return b;
+    }
+
+    /**
+     * Filters the blobs of each class by area and scales the kept ones to frame coordinates,
+     * with the boxes grown by the dilation.
+     */
+    private void collect() {
+        Arrays.fill(counts, 0);
+        for (int b = 0; b < blobCount; b++) {
+            int cls = blobClass[b];
+            if (blobArea[b] <= minArea * maxAreas[cls]) continue;
+
+            int k = counts[cls]++;
+            if (k == xs[cls].length) {
+                xs[cls] = Arrays.copyOf(xs[cls], k * 2);
+                ys[cls] = Arrays.copyOf(ys[cls], k * 2);
+                boxes[cls] = Arrays.copyOf(boxes[cls], k * 2 * 4);
+            }
+            xs[cls][k] = (double) blobSumX[b] / blobArea[b] * SCALE;
+            ys[cls][k] = (double) blobSumY[b] / blobArea[b] * SCALE;
+            int[] box = boxes[cls];
+            box[k * 4] = Math.max(0, blobBoxes[b * 4] - 1) * SCALE;
+            box[k * 4 + 1] = Math.max(0, blobBoxes[b * 4 + 1] - 1) * SCALE;
+            box[k * 4 + 2] = Math.min(cols - 1, blobBoxes[b * 4 + 2] + 1) * SCALE;
+            box[k * 4 + 3] = Math.min(rows - 1, blobBoxes[b * 4 + 3] + 1) * SCALE;
+        }
+    }
+
+    /**
+     * Gets the number of blobs of x class in the last frame.
+     *
+     * @param cls The class
+     * @return the blob count
+     */
+    public int getCount(int cls) {
+        return counts[cls];
+    }
+
+    /**
+     * Gets the center X coordinates of x class's blobs in the last frame.
+     *
+     * @param cls The class
+     * @return the coordinates, in frame pixels, for the first {@link #getCount(int)} blobs;
+     *          reused by the next frame, so copy what's needed
+     */
+    public double[] getXs(int cls) {
+        return xs[cls];
+    }
+
+    /**
+     * Gets the center Y coordinates of x class's blobs in the last frame.
+     *
+     * @param cls The class
+     * @return the coordinates, in frame pixels, for the first {@link #getCount(int)} blobs;
+     *          reused by the next frame, so copy what's needed
+     */
+    public double[] getYs(int cls) {
+        return ys[cls];
+    }
+
+    /**
+     * Gets the bounding boxes of x class's blobs in the last frame.
+     *
+     * @param cls The class
+     * @return left, top, right, bottom of each of the first {@link #getCount(int)} blobs, in
+     *          frame pixels; reused by the next frame, so copy what's needed
+     */
+    public int[] getBoxes(int cls) {
+        return boxes[cls];
+    }
+
+    /**
+     * Gets the frame width.
+     *
+     * @return the width in pixels
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Gets the frame height.
+     *
+     * @return the height in pixels
+     */
+    public int getHeight() {
+        return height;
+    }
+}